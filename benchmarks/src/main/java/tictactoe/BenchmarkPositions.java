@@ -0,0 +1,66 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Reproducible positions for the benchmarks on whatever board Configuration describes
+ */
+final class BenchmarkPositions {
+    static final String EMPTY = "empty";
+    static final String MIDGAME = "midgame";
+    static final String ENDGAME = "endgame";
+
+    private BenchmarkPositions(){
+    }
+
+    /**
+     * Seeded random game in which no move completes a line
+     * @param phase empty, midgame (half the board) or endgame (two cells left)
+     * @return the moves, X first, possibly shorter when no quiet move is left
+     */
+    static int[] moves(String phase){
+        int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+        int target = switch (phase) {
+            case EMPTY -> 0;
+            case MIDGAME -> cells / 2;
+            case ENDGAME -> cells - 2;
+            default -> throw new IllegalArgumentException("Unknown position " + phase);
+        };
+        GameState state = new GameState();
+        SplittableRandom random = new SplittableRandom(42);
+        int[] moves = new int[target];
+        int[] buffer = new int[cells];
+        char symbol = 'X';
+        for (int i = 0; i < target; i++) {
+            int count = state.getAvailableMoves(buffer);
+            int offset = random.nextInt(count);
+            int move = -1;
+            for (int k = 0; k < count && move == -1; k++) {
+                int candidate = buffer[(offset + k) % count];
+                if (!state.isWinningMove(candidate, symbol)) {
+                    move = candidate;
+                }
+            }
+            if (move == -1) {
+                return Arrays.copyOf(moves, i);
+            }
+            moves[i] = move;
+            state.processMove(move, symbol);
+            symbol = (symbol == 'X') ? 'O' : 'X';
+        }
+        return moves;
+    }
+
+    static GameState replay(int[] moves){
+        GameState state = new GameState();
+        for (int i = 0; i < moves.length; i++) {
+            state.processMove(moves[i], i % 2 == 0 ? 'X' : 'O');
+        }
+        return state;
+    }
+
+    static char sideToMove(int[] moves){
+        return moves.length % 2 == 0 ? 'X' : 'O';
+    }
+}
@@ -0,0 +1,84 @@
+package tictactoe;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The GameState calls on the per-move path.
+ * Board size and win length follow -Dtictactoe.size / -Dtictactoe.win passed through -jvmArgsAppend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GameStateBenchmark {
+
+    @Param({BenchmarkPositions.EMPTY, BenchmarkPositions.MIDGAME, BenchmarkPositions.ENDGAME})
+    public String position;
+
+    private GameState state;
+    private int lastMove;
+    private char lastSymbol;
+    private int nextMove;
+    private char toMove;
+    private int[] buffer;
+
+    @Setup
+    public void setUp(){
+        int[] moves = BenchmarkPositions.moves(position);
+        state = BenchmarkPositions.replay(moves);
+        toMove = BenchmarkPositions.sideToMove(moves);
+        lastSymbol = (toMove == 'X') ? 'O' : 'X';
+        lastMove = moves.length == 0 ? 0 : moves[moves.length - 1];
+        nextMove = state.nextAvailableMove(0);
+        buffer = new int[Configuration.BOARD_SIZE * Configuration.BOARD_SIZE];
+    }
+
+    @Benchmark
+    public boolean checkWinLastMove(){
+        return state.checkWin(lastMove);
+    }
+
+    @Benchmark
+    public boolean checkWinWholeBoard(){
+        return state.checkWin(state.getBoard(), lastSymbol);
+    }
+
+    @Benchmark
+    public boolean isWinningMove(){
+        return state.isWinningMove(nextMove, toMove);
+    }
+
+    @Benchmark
+    public List<Integer> getAvailableMovesList(){
+        return state.getAvailableMoves();
+    }
+
+    @Benchmark
+    public int getAvailableMovesBuffer(){
+        return state.getAvailableMoves(buffer);
+    }
+
+    @Benchmark
+    public int processAndUndoMove(){
+        // undo keeps the position fixed between invocations
+        state.processMove(nextMove, toMove);
+        int stones = state.getStones();
+        state.undoMove(nextMove);
+        return stones;
+    }
+}
@@ -0,0 +1,71 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first prompt of the console game: launches each command line, waits for
+ * "Input command: " on its stdout, answers exit and waits for the process to end.
+ * Not a JMH benchmark, every sample is a fresh process.
+ *
+ * usage: StartupBenchmark &lt;runs&gt; &lt;command line&gt;...
+ * e.g.   StartupBenchmark 20 "java -jar game/target/tictactoe-game-1.0-SNAPSHOT.jar"
+ *            "java -XX:SharedArchiveFile=game/target/tictactoe.jsa -jar game/target/tictactoe-game-1.0-SNAPSHOT.jar"
+ *            game/target/tictactoe
+ */
+public class StartupBenchmark {
+    private static final byte[] PROMPT = "Input command: ".getBytes();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("usage: StartupBenchmark <runs> <command line>...");
+            return;
+        }
+        int runs = Integer.parseInt(args[0]);
+        for (String commandLine : Arrays.copyOfRange(args, 1, args.length)) {
+            List<String> command = List.of(commandLine.trim().split("\\s+"));
+            // one launch to warm the page cache, it is not counted
+            launch(command);
+            long[] samples = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                samples[i] = launch(command);
+            }
+            Arrays.sort(samples);
+            double mean = Arrays.stream(samples).average().orElse(0);
+            System.out.printf("%-90s min %6.1f ms  median %6.1f ms  mean %6.1f ms%n", commandLine,
+                    samples[0] / 1e6, samples[runs / 2] / 1e6, mean / 1e6);
+        }
+    }
+
+    /**
+     * @return nanoseconds from the launch until the prompt was read
+     */
+    private static long launch(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(new ArrayList<>(command))
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        InputStream out = process.getInputStream();
+        int matched = 0;
+        while (matched < PROMPT.length) {
+            int b = out.read();
+            if (b == -1) {
+                throw new IllegalStateException("no prompt from " + command);
+            }
+            matched = (b == PROMPT[matched]) ? matched + 1 : (b == PROMPT[0] ? 1 : 0);
+        }
+        long elapsed = System.nanoTime() - start;
+        try (OutputStream in = process.getOutputStream()) {
+            in.write("exit\n".getBytes());
+        }
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+        return elapsed;
+    }
+}
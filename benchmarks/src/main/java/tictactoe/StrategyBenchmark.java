@@ -0,0 +1,80 @@
+package tictactoe;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * generateMove of every AI level. "hard" is what PlayerFactory hands out, "alphabeta" is
+ * HardStrategy on its own, without the move cache of the alphabeta level, and only exists
+ * on the 3x3 board, other sizes fail its setup.
+ * "deepening" is IterativeDeepeningStrategy, which always spends its whole time budget.
+ * "parallel" searches with -Dtictactoe.threads threads, "learned" plays from policy.bin in the
+ * working directory and from an empty table when there is none.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StrategyBenchmark {
+
+    @Param({"easy", "medium", "hard", "alphabeta", "mcts", "deepening", "parallel", "learned", "threat"})
+    public String strategy;
+
+    @Param({BenchmarkPositions.EMPTY, BenchmarkPositions.MIDGAME, BenchmarkPositions.ENDGAME})
+    public String position;
+
+    private AIStrategy ai;
+    private GameState state;
+    private char toMove;
+
+    @Setup
+    public void setUp(){
+        ai = createStrategy(strategy);
+        int[] moves = BenchmarkPositions.moves(position);
+        state = BenchmarkPositions.replay(moves);
+        toMove = BenchmarkPositions.sideToMove(moves);
+    }
+
+    static AIStrategy createStrategy(String name){
+        boolean classicBoard = Configuration.BOARD_SIZE == 3 && Configuration.WIN_LENGTH == 3;
+        if (name.equals("alphabeta") && !classicBoard) {
+            throw new IllegalStateException(name + " only plays the 3x3 board");
+        }
+        AIStrategy created = switch (name) {
+            case "alphabeta" -> new HardStrategy();
+            case "deepening" -> new IterativeDeepeningStrategy();
+            default -> new PlayerFactory().createStrategy(name, new SplittableRandom(42));
+        };
+        if (created == null) {
+            throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+        return created;
+    }
+
+    @TearDown
+    public void tearDown(){
+        if (ai instanceof ParallelMctsStrategy parallel) {
+            parallel.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int generateMove(){
+        return ai.generateMove(state, toMove);
+    }
+}
@@ -1,11 +1,99 @@
 package tictactoe;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
 
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (Configuration.BOARD_SIZE < 1 || Configuration.BOARD_SIZE > Configuration.MAX_BOARD_SIZE) {
+            System.out.println("-Dtictactoe.size should be from 1 to " + Configuration.MAX_BOARD_SIZE + "!");
+            return;
+        }
+        if (Configuration.WIN_LENGTH < 1 || Configuration.WIN_LENGTH > Configuration.BOARD_SIZE) {
+            System.out.println("-Dtictactoe.win should be from 1 to the board size!");
+            return;
+        }
+        if (Configuration.THREADS < 1) {
+            System.out.println("-Dtictactoe.threads should be at least 1!");
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--build-tablebase")) {
+            Tablebase.write(Path.of(args[1]));
+            return;
+        }
+        if (args.length >= 4 && args[0].equals("--simulate")) {
+            SelfPlaySimulator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length == 3 && args[0].equals("--mcts-speedup")) {
+            ParallelMctsStrategy.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--server")) {
+            GameServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length == 3 && args[0].equals("--load-test")) {
+            GameLoadTest.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length >= 3 && args[0].equals("--replay")) {
+            GameReplay.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length == 3 && args[0].equals("--position-stats")) {
+            PositionStats.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length == 1 && args[0].equals("--batch")) {
+            BatchRun.main(new String[0]);
+            return;
+        }
+        if (args.length >= 4 && args[0].equals("--tournament")) {
+            ParallelSelfPlay.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         // start the game
         GameRun run = new GameRun();
         run.gameLoop();
@@ -19,39 +107,171 @@ abstract class  Player {
     public Player(char symbol){
         this.symbol = symbol;
     }
-    public abstract int makeMove(GameState state);
+
+    /**
+     * Asks for a move without waiting for it
+     * @return future completed with the moveIndex
+     */
+    public abstract CompletableFuture<Integer> requestMove(GameState state);
+
+    /**
+     * Gets the player ready for another game, see GamePool
+     */
+    public void reset(){
+    }
+
     public char getSymbol() {
         return symbol;
     }
 }
 
-class AIPlayer extends Player {
+/**
+ * A player that works out its move on the calling thread and can be asked synchronously
+ */
+abstract class SyncPlayer extends Player {
+    public SyncPlayer(char symbol){
+        super(symbol);
+    }
+
+    public abstract int makeMove(GameState state);
+
+    @Override
+    public CompletableFuture<Integer> requestMove(GameState state){
+        return CompletableFuture.completedFuture(makeMove(state));
+    }
+}
+
+class AIPlayer extends SyncPlayer {
     private final AIStrategy strategy;
+    // null: the move is worked out on the calling thread
+    private final Executor executor;
     public AIPlayer(char symbol, AIStrategy strategy) {
+        this(symbol, strategy, null);
+    }
+
+    /**
+     * @param executor where requestMove searches, so the caller's thread stays free
+     */
+    public AIPlayer(char symbol, AIStrategy strategy, Executor executor) {
         super(symbol);
         this.strategy = strategy;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Integer> requestMove(GameState state){
+        if (executor == null) {
+            return super.requestMove(state);
+        }
+        return CompletableFuture.supplyAsync(() -> strategy.generateMove(state, getSymbol()), executor);
     }
 
     @Override
     public int makeMove(GameState state){
-        int moveIndex = strategy.generateMove(state, getSymbol());
-        System.out.println("Making move level \"" + strategy + "\"");
-        return moveIndex;
+        return strategy.generateMove(state, getSymbol());
+    }
+
+    @Override
+    public void reset(){
+        strategy.reset();
     }
 }
 
-class HumanPlayer extends Player{
+class HumanPlayer extends SyncPlayer{
+    private final InputHandler humanInput;
+
     public HumanPlayer(char symbol){
+        this(symbol, Configuration.inputHandler);
+    }
+
+    public HumanPlayer(char symbol, InputHandler humanInput){
         super(symbol);
+        this.humanInput = humanInput;
     }
 
     @Override
     public int makeMove(GameState state){
-        InputHandler humanInput = Configuration.inputHandler;
         return humanInput.getValidMove(state.getBoard());
     }
 }
 
+/**
+ * A player whose moves arrive from outside, over a socket or straight from an in-memory queue.
+ * Nobody blocks while it is thinking: requestMove hands out a future that offerMove completes.
+ */
+class RemotePlayer extends Player {
+    private CompletableFuture<Integer> pending;
+    // a move offered before it was asked for
+    private int bufferedMove = -1;
+    private boolean disconnected;
+
+    public RemotePlayer(char symbol){
+        super(symbol);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> requestMove(GameState state){
+        if (disconnected) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Player " + getSymbol() + " left"));
+        }
+        if (bufferedMove != -1) {
+            int move = bufferedMove;
+            bufferedMove = -1;
+            return CompletableFuture.completedFuture(move);
+        }
+        pending = new CompletableFuture<>();
+        return pending;
+    }
+
+    /**
+     * Hands over a move, the game goes on in the calling thread when it was waiting for it
+     * @return false when a move is already waiting to be used
+     */
+    public boolean offerMove(int moveIndex){
+        CompletableFuture<Integer> waiting;
+        synchronized (this) {
+            if (pending == null) {
+                if (bufferedMove != -1) {
+                    return false;
+                }
+                bufferedMove = moveIndex;
+                return true;
+            }
+            waiting = pending;
+            pending = null;
+        }
+        waiting.complete(moveIndex);
+        return true;
+    }
+
+    public synchronized boolean isWaiting(){
+        return pending != null;
+    }
+
+    /**
+     * Ends the game the player is in, e.g. when its connection drops
+     */
+    public void disconnect(){
+        CompletableFuture<Integer> waiting;
+        synchronized (this) {
+            waiting = pending;
+            pending = null;
+            bufferedMove = -1;
+            disconnected = true;
+        }
+        if (waiting != null) {
+            waiting.completeExceptionally(new IllegalStateException("Player " + getSymbol() + " left"));
+        }
+    }
+
+    @Override
+    public synchronized void reset(){
+        pending = null;
+        bufferedMove = -1;
+        disconnected = false;
+    }
+}
+
 interface AIStrategy {
     /**
      * User should choose the AI Strategy
@@ -60,15 +280,31 @@ interface AIStrategy {
      * @return moveIndex
      */
     int generateMove(GameState state, char aiSymbol);
+
+    /**
+     * Forgets what was kept from the game just played, before the strategy plays another one
+     */
+    default void reset(){
+    }
 }
 
 class RandomStrategy implements AIStrategy {
-    private final Random random = new Random();
+    private final SplittableRandom random;
+
+    public RandomStrategy(){
+        this(new SplittableRandom());
+    }
+
+    /**
+     * @param random stream owned by this strategy alone, SplittableRandom is not thread-safe
+     */
+    public RandomStrategy(SplittableRandom random){
+        this.random = random;
+    }
 
     @Override
     public int generateMove(GameState state, char aiSymbol){
-        List<Integer> avaIndices = state.getAvailableMoves();
-        return avaIndices.get(random.nextInt(avaIndices.size()));
+        return state.getAvailableMove(random.nextInt(state.getEmptyCount()));
     }
 
     @Override
@@ -78,42 +314,33 @@ class RandomStrategy implements AIStrategy {
 }
 
 class MediumStrategy implements AIStrategy {
+    private final RandomStrategy fallback;
+
+    public MediumStrategy(){
+        this(new SplittableRandom());
+    }
+
+    public MediumStrategy(SplittableRandom random){
+        fallback = new RandomStrategy(random);
+    }
 
     @Override
     public int generateMove(GameState state, char aiSymbol) {
         //Winning Move
-        int bestMove = findWinningMove(state, aiSymbol);
+        int bestMove = state.findWinningMove(aiSymbol);
         if( bestMove != -1){
             return bestMove;
         }
 
         //Blocking Move
         char symbol = (aiSymbol == 'X') ? 'O' : 'X';
-        bestMove = findWinningMove(state, symbol);
+        bestMove = state.findWinningMove(symbol);
         if (bestMove != -1){
             return bestMove;
         }
 
         //Fallback Move
-        return  new RandomStrategy().generateMove(state, aiSymbol);
-    }
-
-    private int findWinningMove(GameState state, char symbol) {
-        char[] boardCopy = state.getBoard().clone();
-        List<Integer> availableMoves = state.getAvailableMoves();
-
-        for (int move : availableMoves) {
-            // try to move every possible step
-            boardCopy[move] = symbol;
-
-            // check whether it is a winning step
-            if (state.checkWin(boardCopy, symbol)) {
-                return move;
-            }
-            //when failed, fallback
-            boardCopy[move] = '_';
-        }
-        return -1;
+        return fallback.generateMove(state, aiSymbol);
     }
 
     @Override
@@ -123,240 +350,4906 @@ class MediumStrategy implements AIStrategy {
 
 }
 
-class PlayerFactory{
-    public Player createPlayer(String type, char symbol){
-        return switch (type) {
-            case "easy" -> new AIPlayer(symbol, new RandomStrategy());
-            case "medium" -> new AIPlayer(symbol, new MediumStrategy());
-            case "user" -> new HumanPlayer(symbol);
-            default -> {
-                System.out.print("Invalid Type!");
-                yield null;
-            }
-        };
+class HardStrategy implements AIStrategy {
+    private static final int WIN_SCORE = 10;
+    // center first, then corners, then edges
+    static final int[] moveOrder = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+    private final int fullMask = (1 << (Configuration.BOARD_SIZE * Configuration.BOARD_SIZE)) - 1;
+    private final TranspositionTable table;
+
+    public HardStrategy(){
+        this(new TranspositionTable(1 << 12, TranspositionTable.Replacement.DEPTH_PREFERRED));
     }
-}
 
-class GameState {
-    private final int size;
-    private final char[] board;
-    private final Set<Integer> endRowIndices = new HashSet<>();
-    private boolean gameWinner;
-    private static final int[][] winMap = new int[][]{
-            {0,1,2}, {3,4,5}, {6,7,8}, // 行
-            {0,3,6}, {1,4,7}, {2,5,8}, // 列
-            {0,4,8}, {2,4,6}};
+    public HardStrategy(TranspositionTable table){
+        this.table = table;
+    }
 
-    public GameState(){
-        this.size = Configuration.BOARD_SIZE;
-        board = new char[size * size];
-        initializeBoard();
+    public TranspositionTable getTable(){
+        return table;
     }
 
-    private void initializeBoard(){
-        Arrays.fill(board, '_');
-        for(int i = 1; i <= size; i++){
-            endRowIndices.add(i * size - 1);
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        char opponentSymbol = (aiSymbol == 'X') ? 'O' : 'X';
+        int own = state.getMask(aiSymbol);
+        int opponent = state.getMask(opponentSymbol);
+        int empty = state.getEmptyMask();
+        int alpha = -WIN_SCORE - 1;
+        int bestMove = -1;
+        // depth counts the stones on the board, not the plies below this root
+        int depth = Integer.bitCount(own | opponent) + 1;
+
+        for (int move : moveOrder) {
+            int bit = 1 << move;
+            if ((empty & bit) == 0) {
+                continue;
+            }
+            int score = -negamax(opponent, own | bit, depth, -WIN_SCORE - 1, -alpha);
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+            }
         }
+        return bestMove;
     }
 
-    public void printBoard(){
-        //start line
-        int len = size * size;
+    /**
+     * Alpha-beta search over the two bitboards, nothing is allocated per node
+     * @param toMove cells of the side to move
+     * @param justMoved cells of the side that made the last move
+     * @param depth stones on the board
+     * @return score from the point of view of toMove, quicker wins score higher
+     */
+    private int negamax(int toMove, int justMoved, int depth, int alpha, int beta){
+        if (GameState.isWinningMask(justMoved)) {
+            return depth - WIN_SCORE;
+        }
+        int empty = fullMask & ~(toMove | justMoved);
+        if (empty == 0) {
+            return 0;
+        }
 
-        System.out.println("---------");
-        for(int i = 0; i < len; i++){
-            if(i % size == 0){
-                System.out.print("| ");
+        // depth is the stone count, the same from any root, so the score can be shared as is
+        long key = ZobristHash.canonicalHash(toMove, justMoved);
+        int slot = table.probe(key);
+        if (slot >= 0) {
+            int cached = table.getScore(slot);
+            switch (table.getBound(slot)) {
+                case TranspositionTable.EXACT -> {
+                    return cached;
+                }
+                case TranspositionTable.LOWER_BOUND -> alpha = Math.max(alpha, cached);
+                default -> beta = Math.min(beta, cached);
             }
-            if(board[i] ==  '_'){
-                System.out.print("  ");
-            }else{
-                System.out.print(board[i] + " ");
+            if (alpha >= beta) {
+                return cached;
+            }
+        }
+
+        int alphaOrigin = alpha;
+        for (int move : moveOrder) {
+            int bit = 1 << move;
+            if ((empty & bit) == 0) {
+                continue;
             }
-            if(endRowIndices.contains(i)){
-                System.out.println("|");
+            int score = -negamax(justMoved, toMove | bit, depth + 1, -beta, -alpha);
+            if (score > alpha) {
+                alpha = score;
+                if (alpha >= beta) {
+                    break;
+                }
             }
         }
-        //end line
-        System.out.println("---------");
-    }
 
-    public char[] getBoard(){
-        return board;
+        byte bound = alpha <= alphaOrigin ? TranspositionTable.UPPER_BOUND
+                : alpha >= beta ? TranspositionTable.LOWER_BOUND
+                : TranspositionTable.EXACT;
+        table.store(key, Integer.bitCount(empty), alpha, bound, -1);
+        return alpha;
     }
 
-    public List<Integer> getAvailableMoves(){
-        List<Integer> avaIndices = new ArrayList<>();
-        int len = size * size;
-        for(int i = 0; i < len; i++){
-            if(board[i] == '_'){
-                avaIndices.add(i);
-            }
-        }
-        return avaIndices;
+    @Override
+    public String toString(){
+        return "alphabeta";
     }
+}
 
-    public void processMove(int moveIndex, char playerSymbol) {
-        if(board[moveIndex] == '_'){
-            board[moveIndex] = playerSymbol;
-        }
+/**
+ * Lets any strategy reuse its answers: the chosen move is stored under the canonical
+ * key of the position and mapped back to the current orientation on a hit.
+ */
+class CachedStrategy implements AIStrategy {
+    private final AIStrategy strategy;
+    private final TranspositionTable table;
+
+    public CachedStrategy(AIStrategy strategy, TranspositionTable table){
+        this.strategy = strategy;
+        this.table = table;
     }
 
-    public void setGameWinner(boolean gameWinner) {
-        this.gameWinner = gameWinner;
+    public TranspositionTable getTable(){
+        return table;
     }
 
-    public boolean isGameWinner() {
-        return gameWinner;
+    public AIStrategy getStrategy(){
+        return strategy;
     }
 
-    public boolean checkWin(char[] boardCopy, char currentPlayerSymbol){
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        char opponentSymbol = (aiSymbol == 'X') ? 'O' : 'X';
+        int own = state.getMask(aiSymbol);
+        int opponent = state.getMask(opponentSymbol);
+        int symmetry = ZobristHash.canonicalSymmetry(own, opponent);
+        long key = ZobristHash.hash(own, opponent, symmetry);
 
-        for (int[] currentPath : winMap) {
-            if (boardCopy[currentPath[0]] == currentPlayerSymbol
-                    && boardCopy[currentPath[1]] == currentPlayerSymbol
-                    && boardCopy[currentPath[2]] == currentPlayerSymbol) {
-                    return  true;
-                }
+        int slot = table.probe(key);
+        if (slot >= 0) {
+            return ZobristHash.fromCanonical(table.getMove(slot), symmetry);
         }
-        return false;
+        int move = strategy.generateMove(state, aiSymbol);
+        table.store(key, Integer.bitCount(state.getEmptyMask()), 0, TranspositionTable.EXACT,
+                ZobristHash.toCanonical(move, symmetry));
+        return move;
     }
 
-    public boolean checkDraw(){
-        return (!isGameWinner() && getAvailableMoves().isEmpty());
+    @Override
+    public void reset(){
+        // the cache holds over from game to game, only the strategy behind it starts afresh
+        strategy.reset();
     }
-}
-
-class InputHandler {
-    private static final Scanner sc = new Scanner(System.in);
-    private final int boardSize;
 
-    public InputHandler(){
-        this.boardSize = Configuration.BOARD_SIZE;
+    @Override
+    public String toString(){
+        return strategy.toString();
     }
+}
 
-    public int getValidMove(char[] board){
+/**
+ * Zobrist keys over the 8 rotations/reflections of the square board.
+ * Boards are given as (side to move, other side) bitboards.
+ */
+class ZobristHash {
+    public static final int SYMMETRIES = 8;
+    private static final int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+    // symmetryMap[s][i]: where cell i lands under symmetry s
+    private static final int[][] symmetryMap = new int[SYMMETRIES][cells];
+    private static final int[][] inverseMap = new int[SYMMETRIES][cells];
+    private static final long[][] keys = new long[2][cells];
 
-        int index = -1;
-        while(index == -1){
-            System.out.print("Enter the coordinates: ");
-            String[] coordinates = sc.nextLine().split("\\s+");
-            try{
-                int row = Integer.parseInt(coordinates[0]);
-                int col = Integer.parseInt(coordinates[1]);
-                if(isValidCoordinate(row, col)) {
-                    index = convertToIndex(row, col);
-                }
-            } catch (Exception e) {
-                System.out.println("You should enter numbers!");
+    static {
+        int n = Configuration.BOARD_SIZE;
+        for (int i = 0; i < cells; i++) {
+            int r = i / n;
+            int c = i % n;
+            int[] images = {
+                    r * n + c,                     // identity
+                    c * n + (n - 1 - r),           // rotate 90
+                    (n - 1 - r) * n + (n - 1 - c), // rotate 180
+                    (n - 1 - c) * n + r,           // rotate 270
+                    r * n + (n - 1 - c),           // mirror left-right
+                    (n - 1 - r) * n + c,           // mirror top-bottom
+                    c * n + r,                     // main diagonal
+                    (n - 1 - c) * n + (n - 1 - r)  // anti diagonal
+            };
+            for (int s = 0; s < SYMMETRIES; s++) {
+                symmetryMap[s][i] = images[s];
+                inverseMap[s][images[s]] = i;
             }
-
-            if (isOccupiedPosition(index, board)){
-                index = -1;
+        }
+        Random random = new Random(0x7A11L);
+        for (int side = 0; side < 2; side++) {
+            for (int i = 0; i < cells; i++) {
+                keys[side][i] = random.nextLong();
             }
         }
-        return index;
     }
 
-    public String[] gamePatternSelection(){
-        Set<String> pattern = new HashSet<>(Arrays.asList("easy", "medium","user"));
+    public static long hash(int first, int second, int symmetry){
+        int[] map = symmetryMap[symmetry];
+        long h = 0;
+        while (first != 0) {
+            h ^= keys[0][map[Integer.numberOfTrailingZeros(first)]];
+            first &= first - 1;
+        }
+        while (second != 0) {
+            h ^= keys[1][map[Integer.numberOfTrailingZeros(second)]];
+            second &= second - 1;
+        }
+        return h;
+    }
 
-        while(true){
-            System.out.print("Input command: ");
-            String commandStr = sc.nextLine().toLowerCase().trim();
-            if (commandStr.equals("exit")){
-                return null;
-            }
-            String[] userCommand = commandStr.split("\\s+");
-            if(userCommand.length == 3
-                    && userCommand[0].equals("start")
-                    && pattern.contains(userCommand[1])
-                    && pattern.contains(userCommand[2])){
-                return userCommand;
-            }else{
-                System.out.println("Bad parameters!");
+    public static long canonicalHash(int first, int second){
+        return hash(first, second, canonicalSymmetry(first, second));
+    }
+
+    /**
+     * @return the symmetry giving the smallest key, symmetric positions agree on that key
+     */
+    public static int canonicalSymmetry(int first, int second){
+        int best = 0;
+        long bestHash = hash(first, second, 0);
+        for (int s = 1; s < SYMMETRIES; s++) {
+            long h = hash(first, second, s);
+            if (Long.compareUnsigned(h, bestHash) < 0) {
+                bestHash = h;
+                best = s;
             }
         }
+        return best;
     }
 
-    private  int convertToIndex(int row, int col){
-        return (row - 1) * boardSize + col -1;
+    /**
+     * @return the key side 0 or 1 adds when it takes cell index, seen through the given symmetry,
+     *         so a hash can be kept up to date one move at a time
+     */
+    public static long key(int side, int index, int symmetry){
+        return keys[side][symmetryMap[symmetry][index]];
     }
 
-    public boolean isValidCoordinate(int row, int col){
-        if(row < 1 || row > boardSize || col < 1 || col > boardSize) {
-            System.out.println("Coordinates should be from 1 to " + boardSize + "!");
-            return false;
-        }
-        return true;
+    public static int toCanonical(int index, int symmetry){
+        return symmetryMap[symmetry][index];
     }
 
-    public boolean isOccupiedPosition(int index, char[] board){
-        if(index >= 0 && board[index] !='_') {
-            System.out.println("This cell is occupied! Choose another one!");
-            return true;
-        }
-        return false;
+    public static int fromCanonical(int index, int symmetry){
+        return inverseMap[symmetry][index];
     }
 }
 
-class GameRun{
-    InputHandler inputHandler;
-    private final Player[] players;
-    private int currentPlayerIndex;
-    private final GameState state;
-
+/**
+ * Open-addressing table of search results. Keys and values live in parallel primitive arrays,
+ * a key is looked up in a short cluster of neighbouring slots.
+ */
+class TranspositionTable {
+    public static final byte EXACT = 0;
+    public static final byte LOWER_BOUND = 1;
+    public static final byte UPPER_BOUND = 2;
+    private static final int CLUSTER = 4;
+    // 0 marks an empty slot, a real key of 0 is stored as EMPTY_ALIAS
+    private static final long EMPTY_ALIAS = 1L;
 
-    public GameRun(){
-        inputHandler = Configuration.inputHandler;
-        players = new Player[2];
-        currentPlayerIndex = 0;
-        state = new GameState();
+    enum Replacement {
+        /** a full cluster always gives up its first slot */
+        ALWAYS,
+        /** a full cluster gives up the slot searched to the shallowest depth */
+        DEPTH_PREFERRED
     }
 
-    public boolean gameInitialization(){
-        String[] gamePattern = inputHandler.gamePatternSelection();
-        if (gamePattern == null){
-            return false;
-        }else{
-            PlayerFactory playerFactory = new PlayerFactory();
-            players[0] = playerFactory.createPlayer(gamePattern[1], 'X');
-            players[1] = playerFactory.createPlayer(gamePattern[2], 'O');
-            return true;
+    private final long[] keys;
+    private final int[] scores;
+    private final short[] moves;
+    private final byte[] depths;
+    private final byte[] bounds;
+    private final int indexMask;
+    private final Replacement replacement;
+    private long probes;
+    private long hits;
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     */
+    public TranspositionTable(int size, Replacement replacement){
+        if (size <= 0) {
+            throw new IllegalArgumentException("Table size should be positive!");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
         }
+        capacity = Math.max(capacity, CLUSTER);
+        keys = new long[capacity];
+        scores = new int[capacity];
+        moves = new short[capacity];
+        depths = new byte[capacity];
+        bounds = new byte[capacity];
+        indexMask = capacity - 1;
+        this.replacement = replacement;
     }
 
-    public void gameLoop(){
-        if (!gameInitialization()){
-            return;
+    /**
+     * @return slot holding key, or -1 on a miss
+     */
+    public int probe(long key){
+        key = (key == 0) ? EMPTY_ALIAS : key;
+        probes++;
+        int start = (int) (key ^ (key >>> 32)) & indexMask;
+        for (int i = 0; i < CLUSTER; i++) {
+            int slot = (start + i) & indexMask;
+            if (keys[slot] == key) {
+                hits++;
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                return -1;
+            }
         }
+        return -1;
+    }
 
-        state.printBoard();
-        while(true){
-            Player currentPlayer = players[currentPlayerIndex];
-            int moveIndex = currentPlayer.makeMove(state);
-            state.processMove(moveIndex, currentPlayer.getSymbol());
-            state.printBoard();
-            if(state.checkWin(state.getBoard(), currentPlayer.getSymbol())){
-                state.setGameWinner(true);
-                System.out.println(currentPlayer.getSymbol() + " wins");
-                return;
+    public void store(long key, int depth, int score, byte bound, int move){
+        key = (key == 0) ? EMPTY_ALIAS : key;
+        int start = (int) (key ^ (key >>> 32)) & indexMask;
+        int victim = start;
+        for (int i = 0; i < CLUSTER; i++) {
+            int slot = (start + i) & indexMask;
+            if (keys[slot] == key || keys[slot] == 0) {
+                victim = slot;
+                break;
             }
-            if (state.checkDraw()){
-                System.out.println("Draw");
-                return;
+            if (replacement == Replacement.DEPTH_PREFERRED && depths[slot] < depths[victim]) {
+                victim = slot;
             }
-            switchPlayer();
         }
+        keys[victim] = key;
+        scores[victim] = score;
+        moves[victim] = (short) move;
+        depths[victim] = (byte) Math.min(depth, Byte.MAX_VALUE);
+        bounds[victim] = bound;
+    }
+
+    public int getScore(int slot){
+        return scores[slot];
+    }
+
+    public byte getBound(int slot){
+        return bounds[slot];
+    }
+
+    public int getMove(int slot){
+        return moves[slot];
+    }
+
+    public int getDepth(int slot){
+        return depths[slot];
+    }
+
+    public void clear(){
+        Arrays.fill(keys, 0L);
+        probes = 0;
+        hits = 0;
+    }
+
+    public long getProbes(){
+        return probes;
     }
 
-    public void switchPlayer(){
-        currentPlayerIndex = (currentPlayerIndex + 1) % players.length;
+    public long getHits(){
+        return hits;
+    }
+
+    public double getHitRate(){
+        return probes == 0 ? 0.0 : (double) hits / probes;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%d/%d hits (%.1f%%)", hits, probes, getHitRate() * 100);
+    }
+}
+
+/**
+ * Perfect play for the 3x3 board read straight out of the solved tablebase
+ */
+class TablebaseStrategy implements AIStrategy {
+    private final Tablebase tablebase;
+    private final AIStrategy fallback = new HardStrategy();
+
+    public TablebaseStrategy(){
+        this(Tablebase.shared());
+    }
+
+    /**
+     * @throws IllegalStateException on any other board, where the table would answer
+     *         occupied or missing cells; see PlayerFactory for what "hard" plays there
+     */
+    public TablebaseStrategy(Tablebase tablebase){
+        if (Configuration.BOARD_SIZE != 3 || Configuration.WIN_LENGTH != 3) {
+            throw new IllegalStateException("The tablebase only covers the 3x3 board");
+        }
+        this.tablebase = tablebase;
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        int move = tablebase.getBestMove(state.getPositionIndex());
+        // the table is solved for X moving first, anything else is searched
+        char sideToMove = Integer.bitCount(state.getMask('X')) == Integer.bitCount(state.getMask('O')) ? 'X' : 'O';
+        if (move == Tablebase.NO_MOVE || sideToMove != aiSymbol) {
+            return fallback.generateMove(state, aiSymbol);
+        }
+        return move;
+    }
+
+    @Override
+    public String toString(){
+        return "tablebase";
+    }
+}
+
+/**
+ * Every position of the 3x3 game solved once. One byte per position, addressed by
+ * GameState.getPositionIndex(): low 4 bits best move, next 2 bits value for the side to move.
+ */
+class Tablebase {
+    public static final int NO_MOVE = 0x0F;
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int LOSS = 2;
+    private static final int CELLS = 9;
+    private static final int POSITIONS = 19683; // 3^9
+    private static final byte UNREACHABLE = (byte) 0xFF;
+    private static final int MAGIC = 0x54545442; // "TTTB"
+    private static final int HEADER = 8;
+    // shipped next to the classes, see --build-tablebase
+    private static final String RESOURCE = "/tablebase3x3.bin";
+
+    private final ByteBuffer entries;
+
+    private Tablebase(ByteBuffer entries){
+        this.entries = entries;
+    }
+
+    /**
+     * Opened on first use from Configuration.TABLEBASE_FILE and shared by every strategy
+     */
+    public static Tablebase shared(){
+        return Holder.TABLE;
+    }
+
+    private static final class Holder {
+        static final Tablebase TABLE = open(Configuration.TABLEBASE_FILE);
+    }
+
+    /**
+     * Maps the given tablebase file, or reads the one on the classpath when fileName is null.
+     * Solves it in memory when the table is missing or broken.
+     */
+    public static Tablebase open(String fileName){
+        String source = fileName == null ? "resource " + RESOURCE : fileName;
+        try {
+            if (fileName != null) {
+                return load(Path.of(fileName));
+            }
+            try (InputStream in = Tablebase.class.getResourceAsStream(RESOURCE)) {
+                if (in != null) {
+                    return wrap(ByteBuffer.wrap(in.readAllBytes()));
+                }
+            }
+            System.out.println("Tablebase " + source + " not found, solving it again");
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Tablebase " + source + " unusable, solving it again: " + e.getMessage());
+        }
+        return new Tablebase(ByteBuffer.wrap(solve()));
+    }
+
+    public static Tablebase load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static Tablebase wrap(ByteBuffer table){
+        if (table.capacity() != HEADER + POSITIONS) {
+            throw new IllegalStateException("unexpected size " + table.capacity());
+        }
+        if (table.getInt(0) != MAGIC || table.getInt(4) != CELLS) {
+            throw new IllegalStateException("bad header");
+        }
+        return new Tablebase(table.slice(HEADER, POSITIONS));
+    }
+
+    public static void write(Path path) throws IOException {
+        if (Configuration.BOARD_SIZE != 3 || Configuration.WIN_LENGTH != 3) {
+            throw new IllegalStateException("The tablebase only covers the 3x3 board");
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + POSITIONS);
+        out.putInt(MAGIC).putInt(CELLS).put(solve()).flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    public int getBestMove(int positionIndex){
+        byte entry = entries.get(positionIndex);
+        return entry == UNREACHABLE ? NO_MOVE : entry & 0x0F;
+    }
+
+    public int getValue(int positionIndex){
+        return (entries.get(positionIndex) >> 4) & 0x03;
+    }
+
+    static byte[] solve(){
+        byte[] table = new byte[POSITIONS];
+        int[] scores = new int[POSITIONS];
+        Arrays.fill(table, UNREACHABLE);
+        solve(0, 0, 0, table, scores);
+        return table;
+    }
+
+    /**
+     * Plain memoized negamax from the empty board, only reachable positions get an entry
+     * @return score for the side to move, quicker wins score higher
+     */
+    private static int solve(int xMask, int oMask, int index, byte[] table, int[] scores){
+        if (table[index] != UNREACHABLE) {
+            return scores[index];
+        }
+        int stones = Integer.bitCount(xMask | oMask);
+        boolean xToMove = Integer.bitCount(xMask) == Integer.bitCount(oMask);
+        int score;
+        int bestMove = NO_MOVE;
+        if (GameState.isWinningMask(xToMove ? oMask : xMask)) {
+            score = stones - 10;
+        } else if (stones == CELLS) {
+            score = 0;
+        } else {
+            score = Integer.MIN_VALUE;
+            for (int move : HardStrategy.moveOrder) {
+                int bit = 1 << move;
+                if (((xMask | oMask) & bit) != 0) {
+                    continue;
+                }
+                int childScore = xToMove
+                        ? -solve(xMask | bit, oMask, index + GameState.pow3[move], table, scores)
+                        : -solve(xMask, oMask | bit, index + 2 * GameState.pow3[move], table, scores);
+                if (childScore > score) {
+                    score = childScore;
+                    bestMove = move;
+                }
+            }
+        }
+        int value = score > 0 ? WIN : score < 0 ? LOSS : DRAW;
+        table[index] = (byte) (bestMove | value << 4);
+        scores[index] = score;
+        return score;
+    }
+}
+
+/**
+ * Plays the move whose resulting position scored best in the recorded games, after taking
+ * a win and blocking a loss the way MediumStrategy does. Moves into positions the table
+ * has not seen enough of are never picked; with no known candidate it plays at random.
+ */
+class LearnedStrategy implements AIStrategy {
+    private final PositionTable table;
+    private final RandomStrategy fallback;
+    // canonical hash of the current position under each symmetry
+    private final long[] hashes = new long[ZobristHash.SYMMETRIES];
+
+    public LearnedStrategy(){
+        this(PositionTable.shared(), new SplittableRandom());
+    }
+
+    public LearnedStrategy(PositionTable table, SplittableRandom random){
+        this.table = table;
+        fallback = new RandomStrategy(random);
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        int move = state.findWinningMove(aiSymbol);
+        if (move != -1) {
+            return move;
+        }
+        move = state.findWinningMove(GameState.opponent(aiSymbol));
+        if (move != -1) {
+            return move;
+        }
+        if (table.size() > 0) {
+            move = bestKnownMove(state, aiSymbol);
+            if (move != -1) {
+                return move;
+            }
+        }
+        return fallback.generateMove(state, aiSymbol);
+    }
+
+    private int bestKnownMove(GameState state, char aiSymbol){
+        char[] board = state.getBoard();
+        Arrays.fill(hashes, 0L);
+        for (int i = 0; i < board.length; i++) {
+            if (board[i] != '_') {
+                int side = board[i] == 'X' ? 0 : 1;
+                for (int s = 0; s < hashes.length; s++) {
+                    hashes[s] ^= ZobristHash.key(side, i, s);
+                }
+            }
+        }
+        int side = aiSymbol == 'X' ? 0 : 1;
+        int bestMove = -1;
+        float bestScore = -1;
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            long canonical = hashes[0] ^ ZobristHash.key(side, move, 0);
+            for (int s = 1; s < hashes.length; s++) {
+                long h = hashes[s] ^ ZobristHash.key(side, move, s);
+                if (Long.compareUnsigned(h, canonical) < 0) {
+                    canonical = h;
+                }
+            }
+            int entry = table.find(canonical);
+            if (entry >= 0) {
+                float score = side == 0 ? table.getXScore(entry) : 1 - table.getXScore(entry);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = move;
+                }
+            }
+        }
+        return bestMove;
+    }
+
+    @Override
+    public String toString(){
+        return "learned";
+    }
+}
+
+/**
+ * Score of every position with enough games in a PositionStats file, as two sorted primitive
+ * arrays: the binary search only touches the keys, the score is read once at the end.
+ * A score counts a draw as half a win for X.
+ */
+class PositionTable {
+    private static final PositionTable EMPTY = new PositionTable(new long[0], new float[0]);
+
+    private final long[] keys;
+    private final float[] xScores;
+
+    private PositionTable(long[] keys, float[] xScores){
+        this.keys = keys;
+        this.xScores = xScores;
+    }
+
+    /**
+     * Loaded on first use from Configuration.POLICY_FILE and shared by every strategy
+     */
+    public static PositionTable shared(){
+        return Holder.TABLE;
+    }
+
+    private static final class Holder {
+        static final PositionTable TABLE = open(Configuration.POLICY_FILE,
+                Integer.getInteger("tictactoe.policyMinGames", 8));
+    }
+
+    /**
+     * @return the table, an empty one when the file is missing or broken
+     */
+    public static PositionTable open(String fileName, int minGames){
+        try {
+            return load(Path.of(fileName), minGames);
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Policy table " + fileName + " unusable, playing without it: " + e.getMessage());
+            return EMPTY;
+        }
+    }
+
+    /**
+     * @param minGames positions seen in fewer games are left out
+     */
+    public static PositionTable load(Path path, int minGames) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < PositionStats.HEADER || channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("unexpected size " + channel.size());
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != PositionStats.MAGIC
+                    || mapped.get(4) != PositionStats.VERSION) {
+                throw new IllegalStateException("bad header");
+            }
+            if ((mapped.get(5) & 0xFF) != Configuration.BOARD_SIZE || (mapped.get(6) & 0xFF) != Configuration.WIN_LENGTH) {
+                throw new IllegalStateException("built for -Dtictactoe.size=" + (mapped.get(5) & 0xFF)
+                        + " -Dtictactoe.win=" + (mapped.get(6) & 0xFF));
+            }
+            long entries = mapped.getLong(8);
+            if (channel.size() != PositionStats.HEADER + entries * PositionStats.ENTRY) {
+                throw new IllegalStateException("unexpected size " + channel.size());
+            }
+            int kept = 0;
+            for (int i = 0; i < entries; i++) {
+                if (games(mapped, i) >= minGames) {
+                    kept++;
+                }
+            }
+            long[] keys = new long[kept];
+            float[] xScores = new float[kept];
+            int n = 0;
+            for (int i = 0; i < entries; i++) {
+                long games = games(mapped, i);
+                if (games >= minGames) {
+                    int offset = PositionStats.HEADER + i * PositionStats.ENTRY;
+                    keys[n] = mapped.getLong(offset);
+                    xScores[n] = (float) ((mapped.getLong(offset + 8) + mapped.getLong(offset + 16) * 0.5) / games);
+                    n++;
+                }
+            }
+            return new PositionTable(keys, xScores);
+        }
+    }
+
+    private static long games(ByteBuffer mapped, int entry){
+        int offset = PositionStats.HEADER + entry * PositionStats.ENTRY;
+        return mapped.getLong(offset + 8) + mapped.getLong(offset + 16) + mapped.getLong(offset + 24);
+    }
+
+    /**
+     * @param key canonical hash as written by PositionStats
+     * @return entry index, or -1 when the position is not in the table
+     */
+    public int find(long key){
+        key = (key == 0) ? PositionCounterMap.EMPTY_ALIAS : key;
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? index : -1;
+    }
+
+    public float getXScore(int entry){
+        return xScores[entry];
+    }
+
+    public int size(){
+        return keys.length;
+    }
+}
+
+/**
+ * Monte Carlo Tree Search with UCT selection and random playouts, meant for the big boards.
+ * Nodes live in a preallocated arena where the children of a node sit next to each other,
+ * and the subtree under the opponent's actual reply is kept for the next move.
+ */
+class MctsStrategy implements AIStrategy {
+    private static final double EXPLORATION = Math.sqrt(2);
+    // candidate moves are empty cells at most this far from a stone
+    static final int NEIGHBOURHOOD = 2;
+    private static final int CLOCK_CHECK_INTERVAL = 32;
+
+    private final int iterations;
+    private final long timeBudgetNanos;
+    private final SplittableRandom random;
+    private Arena tree;
+    private Arena spare;
+    private final int[] oldIndex;
+    private final int[] path;
+    private final int[] moveStack;
+    // where the last search left off, to pick the tree up again after the opponent's reply
+    private int reuseNode = -1;
+    private int reuseMove;
+    private int reuseStones;
+    private int searchRoot = -1;
+    private int lastPlayouts;
+
+    public MctsStrategy(){
+        this(new SplittableRandom());
+    }
+
+    public MctsStrategy(SplittableRandom random){
+        this(10_000, 100_000_000L, 1 << 18, random);
+    }
+
+    /**
+     * @param iterations most playouts per move
+     * @param timeBudgetNanos most time spent per move
+     * @param capacity nodes in the arena, expansion stops when it is full
+     */
+    public MctsStrategy(int iterations, long timeBudgetNanos, int capacity, SplittableRandom random){
+        this.iterations = iterations;
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.random = random;
+        tree = new Arena(capacity);
+        spare = new Arena(capacity);
+        oldIndex = new int[capacity];
+        int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+        path = new int[cells + 1];
+        moveStack = new int[cells];
+    }
+
+    private static final class Arena {
+        final short[] move;
+        final int[] firstChild;
+        final short[] childCount;
+        final int[] visits;
+        // from the point of view of the side that played move: 1 per win, 0.5 per draw
+        final float[] wins;
+        int size;
+
+        Arena(int capacity){
+            move = new short[capacity];
+            firstChild = new int[capacity];
+            childCount = new short[capacity];
+            visits = new int[capacity];
+            wins = new float[capacity];
+        }
+
+        int add(int moveIndex){
+            move[size] = (short) moveIndex;
+            firstChild[size] = -1;
+            childCount[size] = 0;
+            visits[size] = 0;
+            wins[size] = 0f;
+            return size++;
+        }
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        char opponentSymbol = GameState.opponent(aiSymbol);
+        // forced moves need no search
+        int forced = state.findWinningMove(aiSymbol);
+        if (forced == -1) {
+            forced = state.findWinningMove(opponentSymbol);
+        }
+        if (forced != -1) {
+            reuseNode = -1;
+            searchRoot = -1;
+            lastPlayouts = 0;
+            return forced;
+        }
+
+        int root = reuseTree(state, opponentSymbol);
+        if (root == -1) {
+            tree.size = 0;
+            root = tree.add(-1);
+        }
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        int i = 0;
+        for (; i < iterations; i++) {
+            if (i % CLOCK_CHECK_INTERVAL == 0 && i > 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+            iterate(state, root, aiSymbol);
+        }
+        lastPlayouts = i;
+        searchRoot = root;
+
+        int best = -1;
+        int first = tree.firstChild[root];
+        for (int c = first; c < first + tree.childCount[root]; c++) {
+            if (best == -1 || tree.visits[c] > tree.visits[best]) {
+                best = c;
+            }
+        }
+        reuseNode = best;
+        reuseMove = tree.move[best];
+        reuseStones = state.getStones() + 2;
+        return reuseMove;
+    }
+
+    @Override
+    public void reset(){
+        reuseNode = -1;
+        searchRoot = -1;
+        tree.size = 0;
+    }
+
+    /**
+     * @return playouts run by the last generateMove, 0 when the move was forced
+     */
+    public int getLastPlayouts(){
+        return lastPlayouts;
+    }
+
+    /**
+     * Adds the visit count of every move searched at the last root to visitsByCell
+     */
+    void addRootVisits(long[] visitsByCell){
+        if (searchRoot == -1) {
+            return;
+        }
+        int first = tree.firstChild[searchRoot];
+        for (int c = first; c < first + tree.childCount[searchRoot]; c++) {
+            visitsByCell[tree.move[c]] += tree.visits[c];
+        }
+    }
+
+    /**
+     * @return root of the kept subtree when the board is our last move plus one reply we explored, else -1
+     */
+    private int reuseTree(GameState state, char opponentSymbol){
+        if (reuseNode == -1 || state.getStones() != reuseStones
+                || state.getBoard()[reuseMove] == '_' || state.getBoard()[reuseMove] == opponentSymbol) {
+            return -1;
+        }
+        int first = tree.firstChild[reuseNode];
+        for (int c = first; c < first + tree.childCount[reuseNode]; c++) {
+            if (state.getBoard()[tree.move[c]] == opponentSymbol) {
+                return compact(c);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the subtree under oldRoot breadth first into the spare arena and swaps the arenas
+     * @return the new root, always 0
+     */
+    private int compact(int oldRoot){
+        Arena from = tree;
+        Arena to = spare;
+        to.size = 0;
+        copyNode(from, oldRoot, to);
+        oldIndex[0] = oldRoot;
+        for (int i = 0; i < to.size; i++) {
+            int old = oldIndex[i];
+            int count = from.childCount[old];
+            if (count == 0) {
+                continue;
+            }
+            to.firstChild[i] = to.size;
+            to.childCount[i] = (short) count;
+            for (int k = 0; k < count; k++) {
+                int child = from.firstChild[old] + k;
+                oldIndex[to.size] = child;
+                copyNode(from, child, to);
+            }
+        }
+        tree = to;
+        spare = from;
+        return 0;
+    }
+
+    private static void copyNode(Arena from, int node, Arena to){
+        int copy = to.add(from.move[node]);
+        to.visits[copy] = from.visits[node];
+        to.wins[copy] = from.wins[node];
+    }
+
+    /**
+     * One selection, expansion, playout and backup. Moves are played on the state and taken back after.
+     */
+    private void iterate(GameState state, int root, char aiSymbol){
+        int depth = 0;
+        int applied = 0;
+        int node = root;
+        path[depth++] = root;
+        // side that made the move into node
+        char mover = GameState.opponent(aiSymbol);
+        char winner = '_';
+        boolean over = false;
+
+        while (true) {
+            if (tree.childCount[node] == 0
+                    && ((tree.visits[node] == 0 && node != root) || !expand(state, node))) {
+                break;
+            }
+            node = select(node);
+            mover = GameState.opponent(mover);
+            int move = tree.move[node];
+            state.processMove(move, mover);
+            moveStack[applied++] = move;
+            path[depth++] = node;
+            if (state.checkWin(move)) {
+                winner = mover;
+                over = true;
+                break;
+            }
+            if (state.checkDraw()) {
+                over = true;
+                break;
+            }
+        }
+
+        if (!over) {
+            char symbol = GameState.opponent(mover);
+            while (true) {
+                int move = state.getAvailableMove(random.nextInt(state.getEmptyCount()));
+                state.processMove(move, symbol);
+                moveStack[applied++] = move;
+                if (state.checkWin(move)) {
+                    winner = symbol;
+                    break;
+                }
+                if (state.checkDraw()) {
+                    break;
+                }
+                symbol = GameState.opponent(symbol);
+            }
+        }
+
+        char nodeMover = GameState.opponent(aiSymbol);
+        for (int d = 0; d < depth; d++) {
+            int n = path[d];
+            tree.visits[n]++;
+            tree.wins[n] += (winner == '_') ? 0.5f : (winner == nodeMover ? 1f : 0f);
+            nodeMover = GameState.opponent(nodeMover);
+        }
+        while (applied > 0) {
+            state.undoMove(moveStack[--applied]);
+        }
+    }
+
+    private int select(int node){
+        int first = tree.firstChild[node];
+        int end = first + tree.childCount[node];
+        double logVisits = Math.log(Math.max(tree.visits[node], 1));
+        int best = first;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = first; c < end; c++) {
+            int visits = tree.visits[c];
+            if (visits == 0) {
+                return c;
+            }
+            double score = tree.wins[c] / visits + EXPLORATION * Math.sqrt(logVisits / visits);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds a child for every candidate cell of the position the state is in
+     * @return false when there is no room left in the arena
+     */
+    private boolean expand(GameState state, int node){
+        int count = 0;
+        boolean anyStone = state.getStones() > 0;
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            if (!anyStone || state.hasStoneNear(move, NEIGHBOURHOOD)) {
+                count++;
+            }
+        }
+        if (count == 0 || tree.size + count > tree.move.length) {
+            return false;
+        }
+        tree.firstChild[node] = tree.size;
+        tree.childCount[node] = (short) count;
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            if (!anyStone || state.hasStoneNear(move, NEIGHBOURHOOD)) {
+                tree.add(move);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        return "mcts";
+    }
+}
+
+/**
+ * MCTS on several threads at once, each with its own copy of the position.
+ * ROOT grows one private MctsStrategy tree per thread and adds up their root visits,
+ * TREE grows one shared tree with atomic counters and a virtual loss on every visit in flight.
+ */
+class ParallelMctsStrategy implements AIStrategy {
+    private static final int CLOCK_CHECK_INTERVAL = 32;
+
+    enum Mode {
+        ROOT,
+        TREE
+    }
+
+    private final Mode mode;
+    private final int threads;
+    private final int iterations;
+    private final long timeBudgetNanos;
+    private final ExecutorService pool;
+    private final GameState[] workerStates;
+    private final List<Callable<Void>> tasks = new ArrayList<>();
+    private final long[] mergedVisits;
+    // ROOT mode
+    private final MctsStrategy[] workers;
+    // TREE mode
+    private final SharedTree shared;
+    private final AtomicInteger playouts = new AtomicInteger();
+    private int root;
+    private char searchSymbol;
+    private long deadline;
+    private int lastPlayouts;
+
+    /**
+     * @param threads search threads, at least 1; idle ones stop after a second
+     */
+    public ParallelMctsStrategy(Mode mode, int threads, int iterations, long timeBudgetNanos, int capacity,
+                                SplittableRandom random){
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        this.mode = mode;
+        this.threads = threads;
+        this.iterations = iterations;
+        this.timeBudgetNanos = timeBudgetNanos;
+        int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+        mergedVisits = new long[cells];
+        workerStates = new GameState[threads];
+        // the console builds new players every game, so threads of a dropped strategy must not linger
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "mcts-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        pool = executor;
+        if (mode == Mode.ROOT) {
+            workers = new MctsStrategy[threads];
+            shared = null;
+        } else {
+            workers = null;
+            shared = new SharedTree(capacity);
+        }
+        for (int t = 0; t < threads; t++) {
+            workerStates[t] = new GameState();
+            GameState workerState = workerStates[t];
+            SplittableRandom workerRandom = random.split();
+            if (mode == Mode.ROOT) {
+                MctsStrategy worker = new MctsStrategy(Math.max(1, iterations / threads), timeBudgetNanos,
+                        capacity, workerRandom);
+                workers[t] = worker;
+                tasks.add(() -> {
+                    worker.generateMove(workerState, searchSymbol);
+                    return null;
+                });
+            } else {
+                int[] path = new int[cells + 1];
+                int[] moveStack = new int[cells];
+                tasks.add(() -> {
+                    runSharedSearch(workerState, workerRandom, path, moveStack);
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * Lock-free tree: children are published by writing firstChild last, counters are atomic
+     */
+    private static final class SharedTree {
+        static final int UNEXPANDED = -1;
+        static final int EXPANDING = -2;
+        static final int NO_ROOM = -3;
+
+        final short[] move;
+        final short[] childCount;
+        final AtomicIntegerArray firstChild;
+        final AtomicIntegerArray visits;
+        // half points: 2 per win, 1 per draw, for the side that played move
+        final AtomicIntegerArray halfWins;
+        final AtomicInteger size = new AtomicInteger();
+
+        SharedTree(int capacity){
+            move = new short[capacity];
+            childCount = new short[capacity];
+            firstChild = new AtomicIntegerArray(capacity);
+            visits = new AtomicIntegerArray(capacity);
+            halfWins = new AtomicIntegerArray(capacity);
+        }
+
+        void init(int node, int moveIndex){
+            move[node] = (short) moveIndex;
+            childCount[node] = 0;
+            visits.set(node, 0);
+            halfWins.set(node, 0);
+            firstChild.set(node, UNEXPANDED);
+        }
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        int forced = state.findWinningMove(aiSymbol);
+        if (forced == -1) {
+            forced = state.findWinningMove(GameState.opponent(aiSymbol));
+        }
+        if (forced != -1) {
+            lastPlayouts = 0;
+            return forced;
+        }
+
+        searchSymbol = aiSymbol;
+        for (GameState workerState : workerStates) {
+            workerState.copyFrom(state);
+        }
+        if (mode == Mode.TREE) {
+            shared.size.set(1);
+            shared.init(0, -1);
+            root = 0;
+            playouts.set(0);
+            deadline = System.nanoTime() + timeBudgetNanos;
+        }
+        runTasks();
+
+        Arrays.fill(mergedVisits, 0L);
+        if (mode == Mode.ROOT) {
+            lastPlayouts = 0;
+            for (MctsStrategy worker : workers) {
+                worker.addRootVisits(mergedVisits);
+                lastPlayouts += worker.getLastPlayouts();
+            }
+        } else {
+            lastPlayouts = playouts.get();
+            int first = shared.firstChild.get(root);
+            for (int c = first; first >= 0 && c < first + shared.childCount[root]; c++) {
+                mergedVisits[shared.move[c]] += shared.visits.get(c);
+            }
+        }
+        int best = -1;
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            if (best == -1 || mergedVisits[move] > mergedVisits[best]) {
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    private void runTasks(){
+        try {
+            for (Future<Void> done : pool.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+    }
+
+    private void runSharedSearch(GameState state, SplittableRandom random, int[] path, int[] moveStack){
+        for (int i = 0; ; i++) {
+            if (i % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                return;
+            }
+            if (playouts.getAndIncrement() >= iterations) {
+                playouts.decrementAndGet();
+                return;
+            }
+            iterateShared(state, random, path, moveStack);
+        }
+    }
+
+    private void iterateShared(GameState state, SplittableRandom random, int[] path, int[] moveStack){
+        int depth = 0;
+        int applied = 0;
+        int node = root;
+        path[depth++] = node;
+        shared.visits.incrementAndGet(node);
+        char mover = GameState.opponent(searchSymbol);
+        char winner = '_';
+        boolean over = false;
+
+        while (true) {
+            int first = shared.firstChild.get(node);
+            if (first < 0) {
+                boolean mayExpand = first == SharedTree.UNEXPANDED
+                        && (node == root || shared.visits.get(node) > 1)
+                        && shared.firstChild.compareAndSet(node, SharedTree.UNEXPANDED, SharedTree.EXPANDING);
+                if (!mayExpand || (first = expandShared(state, node)) < 0) {
+                    break;
+                }
+            }
+            node = selectShared(node, first);
+            // virtual loss: the visit counts now, its result only at backup
+            shared.visits.incrementAndGet(node);
+            mover = GameState.opponent(mover);
+            int move = shared.move[node];
+            state.processMove(move, mover);
+            moveStack[applied++] = move;
+            path[depth++] = node;
+            if (state.checkWin(move)) {
+                winner = mover;
+                over = true;
+                break;
+            }
+            if (state.checkDraw()) {
+                over = true;
+                break;
+            }
+        }
+
+        if (!over) {
+            char symbol = GameState.opponent(mover);
+            while (true) {
+                int move = state.getAvailableMove(random.nextInt(state.getEmptyCount()));
+                state.processMove(move, symbol);
+                moveStack[applied++] = move;
+                if (state.checkWin(move)) {
+                    winner = symbol;
+                    break;
+                }
+                if (state.checkDraw()) {
+                    break;
+                }
+                symbol = GameState.opponent(symbol);
+            }
+        }
+
+        char nodeMover = GameState.opponent(searchSymbol);
+        for (int d = 0; d < depth; d++) {
+            int halfPoints = (winner == '_') ? 1 : (winner == nodeMover ? 2 : 0);
+            if (halfPoints != 0) {
+                shared.halfWins.addAndGet(path[d], halfPoints);
+            }
+            nodeMover = GameState.opponent(nodeMover);
+        }
+        while (applied > 0) {
+            state.undoMove(moveStack[--applied]);
+        }
+    }
+
+    private int selectShared(int node, int first){
+        int end = first + shared.childCount[node];
+        double logVisits = Math.log(Math.max(shared.visits.get(node), 1));
+        int best = first;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = first; c < end; c++) {
+            int visits = shared.visits.get(c);
+            if (visits == 0) {
+                return c;
+            }
+            double score = shared.halfWins.get(c) / (2.0 * visits) + Math.sqrt(2 * logVisits / visits);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Called by the one thread that won the EXPANDING flag of node
+     * @return first child, or -1 when the tree is full
+     */
+    private int expandShared(GameState state, int node){
+        boolean anyStone = state.getStones() > 0;
+        int count = 0;
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            if (!anyStone || state.hasStoneNear(move, MctsStrategy.NEIGHBOURHOOD)) {
+                count++;
+            }
+        }
+        int first = shared.size.getAndAdd(count);
+        if (count == 0 || first + count > shared.move.length) {
+            shared.firstChild.set(node, SharedTree.NO_ROOM);
+            return -1;
+        }
+        int child = first;
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            if (!anyStone || state.hasStoneNear(move, MctsStrategy.NEIGHBOURHOOD)) {
+                shared.init(child++, move);
+            }
+        }
+        shared.childCount[node] = (short) count;
+        shared.firstChild.set(node, first);
+        return first;
+    }
+
+    public int getLastPlayouts(){
+        return lastPlayouts;
+    }
+
+    @Override
+    public void reset(){
+        // the shared tree is rebuilt every move, only the root workers keep theirs
+        if (workers != null) {
+            for (MctsStrategy worker : workers) {
+                worker.reset();
+            }
+        }
+    }
+
+    public void shutdown(){
+        pool.shutdownNow();
+    }
+
+    /**
+     * Playouts per second of one thread against both parallel modes, same time budget per move
+     * @param args thread count and milliseconds per move
+     */
+    public static void main(String[] args){
+        int threads;
+        long budgetNanos;
+        try {
+            threads = Integer.parseInt(args[0]);
+            budgetNanos = Long.parseLong(args[1]) * 1_000_000L;
+        } catch (NumberFormatException e) {
+            System.out.println("You should enter numbers!");
+            return;
+        }
+        if (threads < 1 || budgetNanos <= 0) {
+            System.out.println("Bad parameters!");
+            return;
+        }
+        int capacity = 1 << 20;
+        GameState state = new GameState();
+        SplittableRandom random = new SplittableRandom();
+
+        MctsStrategy single = new MctsStrategy(Integer.MAX_VALUE, budgetNanos, capacity, random.split());
+        double singleRate = playoutRate(() -> {
+            single.generateMove(state, 'X');
+            return single.getLastPlayouts();
+        });
+        System.out.printf("1 thread: %.0f playouts/sec%n", singleRate);
+
+        for (Mode mode : Mode.values()) {
+            ParallelMctsStrategy parallel = new ParallelMctsStrategy(mode, threads, Integer.MAX_VALUE, budgetNanos,
+                    capacity, random.split());
+            double rate = playoutRate(() -> {
+                parallel.generateMove(state, 'X');
+                return parallel.getLastPlayouts();
+            });
+            parallel.shutdown();
+            System.out.printf("%s, %d threads: %.0f playouts/sec, speedup %.2fx%n",
+                    mode, threads, rate, rate / singleRate);
+        }
+    }
+
+    /**
+     * @param search one move from the starting position, returning its playouts
+     */
+    private static double playoutRate(IntSupplier search){
+        int warmupMoves = 5;
+        int measuredMoves = 5;
+        for (int i = 0; i < warmupMoves; i++) {
+            search.getAsInt();
+        }
+        long total = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < measuredMoves; i++) {
+            total += search.getAsInt();
+        }
+        return total / ((System.nanoTime() - start) / 1e9);
+    }
+
+    @Override
+    public String toString(){
+        return "parallel";
+    }
+}
+
+/**
+ * Depth-limited alpha-beta that deepens one ply at a time until the per-move deadline,
+ * then plays the best move of the deepest search that finished. Leaves are scored from
+ * the line counters: lines held by one side only, weighted by how full they are.
+ */
+class IterativeDeepeningStrategy implements AIStrategy {
+    private static final int WIN_SCORE = 1_000_000_000;
+    // nodes between two reads of the clock, a power of two
+    private static final int CLOCK_CHECK_INTERVAL = 128;
+    // candidate moves are empty cells at most this far from a stone
+    private static final int NEIGHBOURHOOD = 2;
+
+    private final long timeBudgetNanos;
+    private final int maxWidth;
+    private final int[] lineWeights;
+    private final int[][] moveBuffers;
+    private final int[][] scoreBuffers;
+    // sum of the line weights, X positive, O negative
+    private int evaluation;
+    private long deadline;
+    private long nodes;
+    private boolean timeUp;
+
+    public IterativeDeepeningStrategy(){
+        // leaves headroom under a 50 ms move limit
+        this(40_000_000L, 16);
+    }
+
+    /**
+     * @param timeBudgetNanos time after which the search gives up and returns its best move so far
+     * @param maxWidth most moves tried at each node, the best ones by the static ordering
+     */
+    public IterativeDeepeningStrategy(long timeBudgetNanos, int maxWidth){
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.maxWidth = maxWidth;
+        lineWeights = new int[Configuration.WIN_LENGTH + 1];
+        for (int count = 1; count <= Configuration.WIN_LENGTH; count++) {
+            lineWeights[count] = (int) Math.pow(10, Math.min(count - 1, 6));
+        }
+        int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+        moveBuffers = new int[cells + 1][cells];
+        scoreBuffers = new int[cells + 1][cells];
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        deadline = System.nanoTime() + timeBudgetNanos;
+        nodes = 0;
+        timeUp = false;
+        evaluation = 0;
+        for (int line = 0; line < GameState.lines.length; line++) {
+            evaluation += lineValue(state, line);
+        }
+
+        int count = orderMoves(state, aiSymbol, 0);
+        int bestMove = moveBuffers[0][0];
+        int maxDepth = state.getEmptyCount();
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int[] moves = moveBuffers[0];
+            // the previous best goes first so a cut-short iteration still starts from it
+            for (int i = 0; i < count; i++) {
+                if (moves[i] == bestMove) {
+                    System.arraycopy(moves, 0, moves, 1, i);
+                    moves[0] = bestMove;
+                    break;
+                }
+            }
+            int alpha = -WIN_SCORE;
+            int candidate = moves[0];
+            for (int i = 0; i < count; i++) {
+                int score = scoreMove(state, moves[i], aiSymbol, depth, 0, -WIN_SCORE, -alpha);
+                if (timeUp) {
+                    break;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                    candidate = moves[i];
+                }
+            }
+            if (timeUp) {
+                break;
+            }
+            bestMove = candidate;
+            if (Math.abs(alpha) >= WIN_SCORE - maxDepth) {
+                // the result is forced, deeper searches cannot change it
+                break;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Plays move, scores it for symbol and takes it back
+     */
+    private int scoreMove(GameState state, int move, char symbol, int depth, int ply, int alpha, int beta){
+        int before = cellValue(state, move);
+        state.processMove(move, symbol);
+        int delta = cellValue(state, move) - before;
+        evaluation += delta;
+        int score;
+        if (state.checkWin(move)) {
+            score = WIN_SCORE - ply;
+        } else if (state.checkDraw()) {
+            score = 0;
+        } else {
+            score = -negamax(state, symbol == 'X' ? 'O' : 'X', depth - 1, ply + 1, alpha, beta);
+        }
+        evaluation -= delta;
+        state.undoMove(move);
+        return score;
+    }
+
+    private int negamax(GameState state, char symbol, int depth, int ply, int alpha, int beta){
+        if ((++nodes & (CLOCK_CHECK_INTERVAL - 1)) == 0 && System.nanoTime() >= deadline) {
+            timeUp = true;
+        }
+        if (timeUp) {
+            return 0;
+        }
+        if (depth == 0) {
+            return (symbol == 'X') ? evaluation : -evaluation;
+        }
+        int count = orderMoves(state, symbol, ply);
+        int[] moves = moveBuffers[ply];
+        int best = -WIN_SCORE;
+        for (int i = 0; i < count; i++) {
+            int score = scoreMove(state, moves[i], symbol, depth, ply, -beta, -alpha);
+            if (timeUp) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills moveBuffers[ply] with the empty cells near a stone, best attack plus defence first
+     * @return number of moves kept, at most maxWidth
+     */
+    private int orderMoves(GameState state, char symbol, int ply){
+        int[] moves = moveBuffers[ply];
+        int[] scores = scoreBuffers[ply];
+        char opponent = (symbol == 'X') ? 'O' : 'X';
+        int count = 0;
+        if (state.getStones() == 0) {
+            int size = state.getSize();
+            moves[0] = (size / 2) * size + size / 2;
+            return 1;
+        }
+        for (int move = state.nextAvailableMove(0); move != -1; move = state.nextAvailableMove(move + 1)) {
+            if (!state.hasStoneNear(move, NEIGHBOURHOOD)) {
+                continue;
+            }
+            int score = 0;
+            for (int line : GameState.cellLines[move]) {
+                int own = state.getLineCount(line, symbol);
+                int other = state.getLineCount(line, opponent);
+                if (other == 0) {
+                    score += lineWeights[own + 1];
+                }
+                if (own == 0) {
+                    score += lineWeights[other + 1];
+                }
+            }
+            // insertion keeps the buffer sorted, best first
+            int i = count++;
+            while (i > 0 && scores[i - 1] < score) {
+                moves[i] = moves[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            moves[i] = move;
+            scores[i] = score;
+        }
+        return Math.min(count, maxWidth);
+    }
+
+    private int cellValue(GameState state, int cell){
+        int value = 0;
+        for (int line : GameState.cellLines[cell]) {
+            value += lineValue(state, line);
+        }
+        return value;
+    }
+
+    private int lineValue(GameState state, int line){
+        int x = state.getLineCount(line, 'X');
+        int o = state.getLineCount(line, 'O');
+        if (x > 0 && o > 0) {
+            return 0;
+        }
+        return (x > 0) ? lineWeights[x] : -lineWeights[o];
+    }
+
+    @Override
+    public String toString(){
+        return "deepening";
+    }
+}
+
+/**
+ * Threat-space heuristic for K in a row on big boards, no search at all.
+ * A window (run of WIN_LENGTH cells) is live for a side while the other side has no stone in it.
+ * For every empty cell and side the strategy keeps, up to date stone by stone:
+ * fours - live windows one stone short through the cell, playing there wins;
+ * threes - live windows two stones short, playing there makes a four in each of them;
+ * score - the weights of all live windows through the cell.
+ * Only cells within NEIGHBOURHOOD of a stone are candidates, tracked in a bitboard,
+ * so a move costs the windows through the new stones plus one pass over the candidates.
+ */
+class ThreatStrategy implements AIStrategy {
+    private static final int NEIGHBOURHOOD = 2;
+
+    private final int size = Configuration.BOARD_SIZE;
+    private final int cells = size * size;
+    private final int winLength = Configuration.WIN_LENGTH;
+    private final int[] windowWeights = new int[winLength];
+    // [side][cell], side 0 is X
+    private final int[][] fours = new int[2][cells];
+    private final int[][] threes = new int[2][cells];
+    private final int[][] scores = new int[2][cells];
+    // stones within NEIGHBOURHOOD of each cell
+    private final int[] nearStones = new int[cells];
+    private final long[] candidates = new long[(cells + 63) / 64];
+    // the position the counters describe
+    private final long[] occupied = new long[candidates.length];
+    private final long[] stateEmpty = new long[candidates.length];
+    private final byte[][] windowCounts = new byte[2][GameState.lines.length];
+    private final SplittableRandom random;
+    private GameState syncedState;
+    private int stones;
+
+    public ThreatStrategy(){
+        this(new SplittableRandom());
+    }
+
+    public ThreatStrategy(SplittableRandom random){
+        this.random = random;
+        for (int count = 1; count < winLength; count++) {
+            windowWeights[count] = 1 << Math.min(3 * count, 24);
+        }
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        sync(state);
+        int me = aiSymbol == 'X' ? 0 : 1;
+        int opponent = 1 - me;
+        if (stones == 0) {
+            return (size / 2) * size + size / 2;
+        }
+        // win, block a win, make a double threat, stop one, else the best scoring cell
+        int move = findCell(fours[me]);
+        if (move == -1) {
+            move = findCell(fours[opponent]);
+        }
+        if (move == -1) {
+            move = findDoubleThreat(me);
+        }
+        if (move == -1) {
+            move = findDoubleThreat(opponent);
+        }
+        return move != -1 ? move : bestScoringCell(me);
+    }
+
+    @Override
+    public void reset(){
+        clear();
+        syncedState = null;
+    }
+
+    /**
+     * Brings the counters up to the position in state: new stones are added one by one,
+     * anything else (another game or another board) rebuilds them from scratch
+     */
+    private void sync(GameState state){
+        state.getEmptyBits(stateEmpty);
+        boolean rebuild = state != syncedState || state.getStones() < stones;
+        for (int w = 0; w < occupied.length && !rebuild; w++) {
+            rebuild = (occupied[w] & stateEmpty[w]) != 0;
+        }
+        if (rebuild) {
+            clear();
+            syncedState = state;
+        }
+        char[] board = state.getBoard();
+        for (int w = 0; w < occupied.length; w++) {
+            long added = ~stateEmpty[w] & ~occupied[w];
+            if (w == occupied.length - 1 && cells % 64 != 0) {
+                added &= (1L << (cells % 64)) - 1;
+            }
+            while (added != 0) {
+                int cell = w * 64 + Long.numberOfTrailingZeros(added);
+                place(cell, board[cell] == 'X' ? 0 : 1);
+                added &= added - 1;
+            }
+        }
+    }
+
+    private void clear(){
+        for (int side = 0; side < 2; side++) {
+            Arrays.fill(fours[side], 0);
+            Arrays.fill(threes[side], 0);
+            Arrays.fill(scores[side], 0);
+            Arrays.fill(windowCounts[side], (byte) 0);
+        }
+        Arrays.fill(nearStones, 0);
+        Arrays.fill(candidates, 0L);
+        Arrays.fill(occupied, 0L);
+        stones = 0;
+    }
+
+    private void place(int cell, int side){
+        // every window through the cell changes, take its old contribution out first
+        for (int line : GameState.cellLines[cell]) {
+            contribute(line, -1);
+        }
+        occupied[cell >>> 6] |= 1L << cell;
+        candidates[cell >>> 6] &= ~(1L << cell);
+        stones++;
+        for (int line : GameState.cellLines[cell]) {
+            windowCounts[side][line]++;
+            contribute(line, 1);
+        }
+        int row = cell / size;
+        int col = cell % size;
+        for (int r = Math.max(0, row - NEIGHBOURHOOD); r <= Math.min(size - 1, row + NEIGHBOURHOOD); r++) {
+            for (int c = Math.max(0, col - NEIGHBOURHOOD); c <= Math.min(size - 1, col + NEIGHBOURHOOD); c++) {
+                int near = r * size + c;
+                if (nearStones[near]++ == 0 && (occupied[near >>> 6] & (1L << near)) == 0) {
+                    candidates[near >>> 6] |= 1L << near;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) what a window gives to its empty cells
+     */
+    private void contribute(int line, int sign){
+        int xCount = windowCounts[0][line];
+        int oCount = windowCounts[1][line];
+        if ((xCount == 0) == (oCount == 0)) {
+            // empty windows are left out, blocked ones are worth nothing to either side
+            return;
+        }
+        int side = xCount > 0 ? 0 : 1;
+        int count = Math.max(xCount, oCount);
+        if (count >= winLength) {
+            return;
+        }
+        int weight = sign * windowWeights[count];
+        boolean four = count == winLength - 1;
+        boolean three = count == winLength - 2;
+        for (int cell : GameState.lines[line]) {
+            if ((occupied[cell >>> 6] & (1L << cell)) == 0) {
+                scores[side][cell] += weight;
+                if (four) {
+                    fours[side][cell] += sign;
+                } else if (three) {
+                    threes[side][cell] += sign;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a candidate with a positive counter, -1 if there is none
+     */
+    private int findCell(int[] counters){
+        for (int w = 0; w < candidates.length; w++) {
+            long bits = candidates[w];
+            while (bits != 0) {
+                int cell = w * 64 + Long.numberOfTrailingZeros(bits);
+                if (counters[cell] > 0) {
+                    return cell;
+                }
+                bits &= bits - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a cell where side makes fours with two different winning cells, -1 if there is none
+     */
+    private int findDoubleThreat(int side){
+        for (int w = 0; w < candidates.length; w++) {
+            long bits = candidates[w];
+            while (bits != 0) {
+                int cell = w * 64 + Long.numberOfTrailingZeros(bits);
+                if (threes[side][cell] >= 2 && winningCellsAfter(cell, side) >= 2) {
+                    return cell;
+                }
+                bits &= bits - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return distinct cells, up to two, where side would win once it has played cell
+     */
+    private int winningCellsAfter(int cell, int side){
+        int first = -1;
+        for (int line : GameState.cellLines[cell]) {
+            if (windowCounts[side][line] != winLength - 2 || windowCounts[1 - side][line] != 0) {
+                continue;
+            }
+            for (int other : GameState.lines[line]) {
+                if (other != cell && (occupied[other >>> 6] & (1L << other)) == 0) {
+                    if (first == -1) {
+                        first = other;
+                    } else if (other != first) {
+                        return 2;
+                    }
+                }
+            }
+        }
+        return first == -1 ? 0 : 1;
+    }
+
+    /**
+     * @return the candidate best for attack and defence together, ties broken at random
+     */
+    private int bestScoringCell(int me){
+        int bestMove = -1;
+        long bestScore = Long.MIN_VALUE;
+        int ties = 0;
+        for (int w = 0; w < candidates.length; w++) {
+            long bits = candidates[w];
+            while (bits != 0) {
+                int cell = w * 64 + Long.numberOfTrailingZeros(bits);
+                long score = 2L * scores[me][cell] + scores[1 - me][cell];
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = cell;
+                    ties = 1;
+                } else if (score == bestScore && random.nextInt(++ties) == 0) {
+                    bestMove = cell;
+                }
+                bits &= bits - 1;
+            }
+        }
+        return bestMove;
+    }
+
+    @Override
+    public String toString(){
+        return "threat";
+    }
+}
+
+class PlayerFactory{
+    public Player createPlayer(String type, char symbol){
+        if (type.equals("user")) {
+            return new HumanPlayer(symbol);
+        }
+        AIStrategy strategy = createStrategy(type);
+        if (strategy == null) {
+            System.out.print("Invalid Type!");
+            return null;
+        }
+        return new AIPlayer(symbol, strategy);
+    }
+
+    /**
+     * @return a fresh strategy for the level, null when there is no such AI level
+     */
+    public AIStrategy createStrategy(String type){
+        return createStrategy(type, new SplittableRandom());
+    }
+
+    /**
+     * @param random stream handed to the random parts of the strategy
+     */
+    public AIStrategy createStrategy(String type, SplittableRandom random){
+        return switch (type) {
+            case "easy" -> new RandomStrategy(random);
+            case "medium" -> new MediumStrategy(random);
+            case "mcts" -> new MctsStrategy(random);
+            // the alpha-beta search itself, each answer kept for the next game; its bitboards only fit 3x3
+            case "alphabeta" -> (Configuration.BOARD_SIZE == 3 && Configuration.WIN_LENGTH == 3)
+                    ? new CachedStrategy(new HardStrategy(),
+                            new TranspositionTable(1 << 13, TranspositionTable.Replacement.DEPTH_PREFERRED))
+                    : null;
+            // same playout budget as mcts, spread over one shared tree
+            case "parallel" -> new ParallelMctsStrategy(ParallelMctsStrategy.Mode.TREE, Configuration.THREADS,
+                    10_000, 100_000_000L, 1 << 18, random);
+            case "learned" -> new LearnedStrategy(PositionTable.shared(), random);
+            case "threat" -> new ThreatStrategy(random);
+            // the tablebase only covers the classic board, bigger ones are searched against the clock
+            case "hard" -> (Configuration.BOARD_SIZE == 3 && Configuration.WIN_LENGTH == 3)
+                    ? new TablebaseStrategy() : new IterativeDeepeningStrategy();
+            default -> null;
+        };
+    }
+}
+
+class GameState {
+    // row/column steps of the four line directions: row, column, diagonal, anti-diagonal
+    private static final int[] rowSteps = {0, 1, 1, 1};
+    private static final int[] colSteps = {1, 0, 1, -1};
+    // int masks and the base-3 index only fit small boards
+    static final int MAX_MASK_CELLS = 31;
+    static final int MAX_INDEXED_CELLS = 19;
+    // every run of WIN_LENGTH cells in a row, column or diagonal, and the runs through each cell
+    static final int[][] lines = buildLines(Configuration.BOARD_SIZE, Configuration.WIN_LENGTH);
+    static final int[][] cellLines = buildCellLines(lines, Configuration.BOARD_SIZE * Configuration.BOARD_SIZE);
+    private static final int[] winMasks = buildWinMasks(lines, Configuration.BOARD_SIZE * Configuration.BOARD_SIZE);
+    static final int[] pow3 = new int[Math.min(Configuration.BOARD_SIZE * Configuration.BOARD_SIZE, MAX_INDEXED_CELLS)];
+
+    static {
+        pow3[0] = 1;
+        for (int i = 1; i < pow3.length; i++) {
+            pow3[i] = pow3[i - 1] * 3;
+        }
+    }
+
+    private final int size;
+    private final int cells;
+    private final int winLength;
+    private final char[] board;
+    // one bit per cell, bit i <=> board[i]
+    private final long[] xBits;
+    private final long[] oBits;
+    private final long lastWordMask;
+    // stones each side has on every line, a count of winLength is a win
+    private final byte[] xLineCounts;
+    private final byte[] oLineCounts;
+    private int completedLines;
+    private char winner;
+    private int stones;
+    // base-3 number of the board, digit i is 0/1/2 for '_'/'X'/'O' in cell i
+    private int positionIndex;
+    private boolean gameWinner;
+
+    public GameState(){
+        this.size = Configuration.BOARD_SIZE;
+        this.winLength = Configuration.WIN_LENGTH;
+        cells = size * size;
+        board = new char[cells];
+        xBits = new long[(cells + 63) / 64];
+        oBits = new long[xBits.length];
+        lastWordMask = (cells % 64 == 0) ? -1L : (1L << (cells % 64)) - 1;
+        xLineCounts = new byte[lines.length];
+        oLineCounts = new byte[lines.length];
+        initializeBoard();
+    }
+
+    /**
+     * Makes this state the same position as other, without allocating
+     */
+    public void copyFrom(GameState other){
+        System.arraycopy(other.board, 0, board, 0, cells);
+        System.arraycopy(other.xBits, 0, xBits, 0, xBits.length);
+        System.arraycopy(other.oBits, 0, oBits, 0, oBits.length);
+        System.arraycopy(other.xLineCounts, 0, xLineCounts, 0, xLineCounts.length);
+        System.arraycopy(other.oLineCounts, 0, oLineCounts, 0, oLineCounts.length);
+        completedLines = other.completedLines;
+        winner = other.winner;
+        stones = other.stones;
+        positionIndex = other.positionIndex;
+        gameWinner = other.gameWinner;
+    }
+
+    /**
+     * Clears the board for another game. Only the cells in use and the lines through them are
+     * touched, so the cost follows the stones played rather than the size of the board.
+     */
+    public void reset(){
+        for (int w = 0; w < xBits.length; w++) {
+            long used = xBits[w] | oBits[w];
+            while (used != 0) {
+                int cell = w * 64 + Long.numberOfTrailingZeros(used);
+                board[cell] = '_';
+                for (int line : cellLines[cell]) {
+                    xLineCounts[line] = 0;
+                    oLineCounts[line] = 0;
+                }
+                used &= used - 1;
+            }
+            xBits[w] = 0L;
+            oBits[w] = 0L;
+        }
+        completedLines = 0;
+        winner = '_';
+        stones = 0;
+        positionIndex = 0;
+        gameWinner = false;
+    }
+
+    private void initializeBoard(){
+        Arrays.fill(board, '_');
+        Arrays.fill(xBits, 0L);
+        Arrays.fill(oBits, 0L);
+        Arrays.fill(xLineCounts, (byte) 0);
+        Arrays.fill(oLineCounts, (byte) 0);
+        completedLines = 0;
+        winner = '_';
+        stones = 0;
+        positionIndex = 0;
+    }
+
+    private static int[][] buildLines(int size, int winLength){
+        List<int[]> found = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                for (int d = 0; d < rowSteps.length; d++) {
+                    int endRow = row + rowSteps[d] * (winLength - 1);
+                    int endCol = col + colSteps[d] * (winLength - 1);
+                    if (endRow >= size || endCol < 0 || endCol >= size) {
+                        continue;
+                    }
+                    int[] line = new int[winLength];
+                    for (int k = 0; k < winLength; k++) {
+                        line[k] = (row + rowSteps[d] * k) * size + col + colSteps[d] * k;
+                    }
+                    found.add(line);
+                }
+            }
+        }
+        return found.toArray(new int[0][]);
+    }
+
+    private static int[][] buildCellLines(int[][] lines, int cells){
+        int[] counts = new int[cells];
+        for (int[] line : lines) {
+            for (int cell : line) {
+                counts[cell]++;
+            }
+        }
+        int[][] result = new int[cells][];
+        for (int cell = 0; cell < cells; cell++) {
+            result[cell] = new int[counts[cell]];
+        }
+        Arrays.fill(counts, 0);
+        for (int id = 0; id < lines.length; id++) {
+            for (int cell : lines[id]) {
+                result[cell][counts[cell]++] = id;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The lines as bitmasks, for boards that fit an int
+     */
+    private static int[] buildWinMasks(int[][] lines, int cells){
+        if (cells > MAX_MASK_CELLS) {
+            return new int[0];
+        }
+        int[] masks = new int[lines.length];
+        for (int id = 0; id < lines.length; id++) {
+            for (int cell : lines[id]) {
+                masks[id] |= 1 << cell;
+            }
+        }
+        return masks;
+    }
+
+    public char[] getBoard(){
+        return board;
+    }
+
+    public int getSize(){
+        return size;
+    }
+
+    public int getWinLength(){
+        return winLength;
+    }
+
+    public int getStones(){
+        return stones;
+    }
+
+    /**
+     * @param line index into GameState.lines
+     * @return stones symbol has on that line
+     */
+    public int getLineCount(int line, char symbol){
+        return (symbol == 'X') ? xLineCounts[line] : oLineCounts[line];
+    }
+
+    /**
+     * Only meaningful when the board has at most MAX_MASK_CELLS cells
+     * @param symbol 'X' or 'O'
+     * @return bitboard of the cells taken by symbol
+     */
+    public int getMask(char symbol){
+        return (int) (symbol == 'X' ? xBits[0] : oBits[0]);
+    }
+
+    /**
+     * Only meaningful when the board has at most MAX_MASK_CELLS cells
+     */
+    public int getEmptyMask(){
+        return (int) emptyWord(0);
+    }
+
+    /**
+     * Only meaningful when the board has at most MAX_INDEXED_CELLS cells
+     */
+    public int getPositionIndex(){
+        return positionIndex;
+    }
+
+    private long emptyWord(int word){
+        long empty = ~(xBits[word] | oBits[word]);
+        return (word == xBits.length - 1) ? empty & lastWordMask : empty;
+    }
+
+    public int getEmptyCount(){
+        return cells - stones;
+    }
+
+    /**
+     * Writes the empty cells into the caller's buffer, nothing is allocated
+     * @param buffer at least getEmptyCount() long
+     * @return number of moves written
+     */
+    public int getAvailableMoves(int[] buffer){
+        int count = 0;
+        for (int w = 0; w < xBits.length; w++) {
+            long empty = emptyWord(w);
+            while (empty != 0) {
+                buffer[count++] = w * 64 + Long.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the empty-cell bitboard, bit i of word i / 64 is set when cell i is free
+     * @param words at least (cells + 63) / 64 long
+     */
+    public long[] getEmptyBits(long[] words){
+        for (int w = 0; w < xBits.length; w++) {
+            words[w] = emptyWord(w);
+        }
+        return words;
+    }
+
+    /**
+     * Cursor over the empty cells without an iterator object:
+     * for (int m = nextAvailableMove(0); m != -1; m = nextAvailableMove(m + 1))
+     * @return first empty cell at or after from, -1 when there is none
+     */
+    public int nextAvailableMove(int from){
+        if (from >= cells) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long empty = emptyWord(w) & (-1L << from);
+        while (empty == 0) {
+            if (++w == xBits.length) {
+                return -1;
+            }
+            empty = emptyWord(w);
+        }
+        return w * 64 + Long.numberOfTrailingZeros(empty);
+    }
+
+    /**
+     * @param rank 0 until getEmptyCount() - 1
+     * @return the rank-th empty cell in index order
+     */
+    public int getAvailableMove(int rank){
+        for (int w = 0; w < xBits.length; w++) {
+            long empty = emptyWord(w);
+            int count = Long.bitCount(empty);
+            if (rank < count) {
+                for (int i = 0; i < rank; i++) {
+                    empty &= empty - 1;
+                }
+                return w * 64 + Long.numberOfTrailingZeros(empty);
+            }
+            rank -= count;
+        }
+        return -1;
+    }
+
+    public List<Integer> getAvailableMoves(){
+        List<Integer> avaIndices = new ArrayList<>(cells - stones);
+        for (int w = 0; w < xBits.length; w++) {
+            long empty = emptyWord(w);
+            while (empty != 0) {
+                avaIndices.add(w * 64 + Long.numberOfTrailingZeros(empty));
+                empty &= empty - 1;
+            }
+        }
+        return avaIndices;
+    }
+
+    public void processMove(int moveIndex, char playerSymbol) {
+        if(board[moveIndex] == '_'){
+            board[moveIndex] = playerSymbol;
+            stones++;
+            long bit = 1L << moveIndex;
+            if(playerSymbol == 'X'){
+                xBits[moveIndex >>> 6] |= bit;
+            }else{
+                oBits[moveIndex >>> 6] |= bit;
+            }
+            if (cells <= MAX_INDEXED_CELLS) {
+                positionIndex += (playerSymbol == 'X' ? 1 : 2) * pow3[moveIndex];
+            }
+            byte[] counts = (playerSymbol == 'X') ? xLineCounts : oLineCounts;
+            for (int line : cellLines[moveIndex]) {
+                if (++counts[line] == winLength) {
+                    completedLines++;
+                    winner = playerSymbol;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes back a move made with processMove, line counters included
+     */
+    public void undoMove(int moveIndex) {
+        char playerSymbol = board[moveIndex];
+        if (playerSymbol == '_') {
+            return;
+        }
+        board[moveIndex] = '_';
+        stones--;
+        long bit = 1L << moveIndex;
+        if (playerSymbol == 'X') {
+            xBits[moveIndex >>> 6] &= ~bit;
+        } else {
+            oBits[moveIndex >>> 6] &= ~bit;
+        }
+        if (cells <= MAX_INDEXED_CELLS) {
+            positionIndex -= (playerSymbol == 'X' ? 1 : 2) * pow3[moveIndex];
+        }
+        byte[] counts = (playerSymbol == 'X') ? xLineCounts : oLineCounts;
+        for (int line : cellLines[moveIndex]) {
+            if (counts[line]-- == winLength) {
+                completedLines--;
+            }
+        }
+        if (completedLines == 0) {
+            winner = '_';
+        }
+        gameWinner = false;
+    }
+
+    /**
+     * @return symbol owning a completed line, '_' while nobody has won
+     */
+    public char getWinner(){
+        return winner;
+    }
+
+    public void setGameWinner(boolean gameWinner) {
+        this.gameWinner = gameWinner;
+    }
+
+    public boolean isGameWinner() {
+        return gameWinner;
+    }
+
+    /**
+     * Reads the line counters kept up to date by processMove
+     * @param lastMove index of the stone just placed
+     * @return whether that stone's side has completed winLength in a row
+     */
+    public boolean checkWin(int lastMove){
+        return completedLines > 0 && winner == board[lastMove];
+    }
+
+    /**
+     * @return whether putting symbol on the empty cell index would complete winLength in a row
+     */
+    public boolean isWinningMove(int index, char symbol){
+        byte[] counts = (symbol == 'X') ? xLineCounts : oLineCounts;
+        for (int line : cellLines[index]) {
+            if (counts[line] == winLength - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return an empty cell where symbol would complete winLength in a row, -1 when there is none
+     */
+    public int findWinningMove(char symbol){
+        for (int move = nextAvailableMove(0); move != -1; move = nextAvailableMove(move + 1)) {
+            if (isWinningMove(move, symbol)) {
+                return move;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether a stone of either side sits within distance rows and columns of index
+     */
+    public boolean hasStoneNear(int index, int distance){
+        int row = index / size;
+        int col = index % size;
+        for (int r = Math.max(0, row - distance); r <= Math.min(size - 1, row + distance); r++) {
+            for (int c = Math.max(0, col - distance); c <= Math.min(size - 1, col + distance); c++) {
+                if (board[r * size + c] != '_') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static char opponent(char symbol){
+        return symbol == 'X' ? 'O' : 'X';
+    }
+
+    /**
+     * @return number of symbol stones next to (row, col) going in one direction, capped at winLength
+     */
+    private int runLength(char[] cellsOnBoard, int row, int col, int rowStep, int colStep, char symbol){
+        int count = 0;
+        int r = row + rowStep;
+        int c = col + colStep;
+        while (count < winLength && r >= 0 && r < size && c >= 0 && c < size
+                && cellsOnBoard[r * size + c] == symbol) {
+            count++;
+            r += rowStep;
+            c += colStep;
+        }
+        return count;
+    }
+
+    /**
+     * Whole-board check, prefer checkWin(lastMove) when the last move is known
+     */
+    public boolean checkWin(char[] boardCopy, char currentPlayerSymbol){
+        if (cells <= MAX_MASK_CELLS) {
+            // the live board is already mirrored in the masks, copies are packed on the fly
+            int mask = (boardCopy == board) ? getMask(currentPlayerSymbol) : toMask(boardCopy, currentPlayerSymbol);
+            return isWinningMask(mask);
+        }
+        for (int i = 0; i < cells; i++) {
+            if (boardCopy[i] == currentPlayerSymbol) {
+                for (int d = 0; d < rowSteps.length; d++) {
+                    int length = 1 + runLength(boardCopy, i / size, i % size, rowSteps[d], colSteps[d],
+                            currentPlayerSymbol);
+                    if (length >= winLength) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public static boolean isWinningMask(int mask){
+        for (int winMask : winMasks) {
+            if ((mask & winMask) == winMask) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toMask(char[] boardCopy, char symbol){
+        int mask = 0;
+        for (int i = 0; i < boardCopy.length; i++) {
+            if (boardCopy[i] == symbol) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    public boolean checkDraw(){
+        return (!isGameWinner() && stones == cells);
+    }
+}
+
+/**
+ * Reads lines of bytes from a stream through its own buffer, one reused line array
+ * instead of a String per line. Line ends are \n or \r\n.
+ */
+class LineReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private byte[] line = new byte[128];
+    private int length;
+
+    public LineReader(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * @return false at the end of the input, when there is no line left
+     */
+    public boolean readLine(){
+        length = 0;
+        boolean any = false;
+        while (true) {
+            if (position == limit && !fill()) {
+                return any;
+            }
+            any = true;
+            byte b = buffer[position++];
+            if (b == '\n') {
+                break;
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return true;
+    }
+
+    private boolean fill(){
+        try {
+            limit = in.read(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            limit = -1;
+        }
+        position = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    public byte[] getLine(){
+        return line;
+    }
+
+    public int getLength(){
+        return length;
+    }
+}
+
+/**
+ * Draws the board for the console. A frame is put together in one reused byte buffer and
+ * written with a single call, instead of one print per cell.
+ * every: 1 draws after each move, N after every Nth move and at the end, 0 only the result.
+ */
+class ConsoleRenderer {
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final PrintStream out;
+    private final int every;
+    private byte[] frame = new byte[256];
+    private int length;
+    private int moves;
+
+    public ConsoleRenderer(PrintStream out, int every){
+        this.out = out;
+        this.every = every;
+    }
+
+    public void startGame(GameState state){
+        moves = 0;
+        if (every > 0) {
+            appendBoard(state);
+            flush();
+        }
+    }
+
+    /**
+     * @param announcement line printed above the board, null for none
+     */
+    public void move(GameState state, String announcement){
+        moves++;
+        if (every > 0 && moves % every == 0) {
+            if (announcement != null) {
+                appendLine(announcement);
+            }
+            appendBoard(state);
+            flush();
+        }
+    }
+
+    /**
+     * Shows the final position if it has not been drawn yet, then the result
+     */
+    public void gameOver(GameState state, String result){
+        if (every > 0 && moves % every != 0) {
+            appendBoard(state);
+        }
+        appendLine(result);
+        flush();
+    }
+
+    private void appendBoard(GameState state){
+        int size = state.getSize();
+        char[] board = state.getBoard();
+        ensureCapacity((2 * size + 3 + NEWLINE.length) * (size + 2));
+        appendBorder(size);
+        for (int row = 0; row < size; row++) {
+            frame[length++] = '|';
+            frame[length++] = ' ';
+            for (int col = 0; col < size; col++) {
+                char cell = board[row * size + col];
+                frame[length++] = (byte) (cell == '_' ? ' ' : cell);
+                frame[length++] = ' ';
+            }
+            frame[length++] = '|';
+            appendNewline();
+        }
+        appendBorder(size);
+    }
+
+    private void appendBorder(int size){
+        for (int i = 0; i < 2 * size + 3; i++) {
+            frame[length++] = '-';
+        }
+        appendNewline();
+    }
+
+    private void appendLine(String line){
+        ensureCapacity(line.length() + NEWLINE.length);
+        for (int i = 0; i < line.length(); i++) {
+            frame[length++] = (byte) line.charAt(i);
+        }
+        appendNewline();
+    }
+
+    private void appendNewline(){
+        for (byte b : NEWLINE) {
+            frame[length++] = b;
+        }
+    }
+
+    private void ensureCapacity(int extra){
+        if (length + extra > frame.length) {
+            frame = Arrays.copyOf(frame, Math.max(frame.length * 2, length + extra));
+        }
+    }
+
+    private void flush(){
+        out.write(frame, 0, length);
+        out.flush();
+        length = 0;
+    }
+}
+
+class InputHandler {
+    private static final LineReader reader = new LineReader(System.in);
+    // every level name a command may use, matched without building strings
+    private static final String[] PLAYER_TYPES = {"easy", "medium", "hard", "mcts", "parallel", "learned", "threat",
+            "user"};
+    private static final int NOT_A_NUMBER = Integer.MIN_VALUE;
+    private final int boardSize;
+    private final PrintStream out;
+    private final boolean prompts;
+    // start and end of every token on the current line
+    private final int[] tokenStarts = new int[4];
+    private final int[] tokenEnds = new int[4];
+
+    public InputHandler(){
+        this(System.out, true);
+    }
+
+    /**
+     * @param out     where the error messages go
+     * @param prompts whether to ask for every command, scripted input does without
+     */
+    public InputHandler(PrintStream out, boolean prompts){
+        this.boardSize = Configuration.BOARD_SIZE;
+        this.out = out;
+        this.prompts = prompts;
+    }
+
+    /**
+     * @throws NoSuchElementException when the input ends before a valid move
+     */
+    public int getValidMove(char[] board){
+
+        int index = -1;
+        while(index == -1){
+            prompt("Enter the coordinates: ");
+            if (!reader.readLine()) {
+                throw new NoSuchElementException("No line found");
+            }
+            int tokens = tokenize();
+            int row = tokens >= 2 ? parseNumber(0) : NOT_A_NUMBER;
+            int col = tokens >= 2 ? parseNumber(1) : NOT_A_NUMBER;
+            if (row == NOT_A_NUMBER || col == NOT_A_NUMBER) {
+                out.println("You should enter numbers!");
+            } else if (isValidCoordinate(row, col)) {
+                index = convertToIndex(row, col);
+            }
+
+            if (isOccupiedPosition(index, board)){
+                index = -1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return start, the first player type and the second, null on exit or at the end of the input
+     */
+    public String[] gamePatternSelection(){
+        while(true){
+            prompt("Input command: ");
+            if (!reader.readLine()) {
+                return null;
+            }
+            int tokens = tokenize();
+            if (tokens == 1 && tokenEquals(0, "exit")){
+                return null;
+            }
+            if (tokens == 3 && tokenEquals(0, "start")) {
+                String first = playerType(1);
+                String second = playerType(2);
+                if (first != null && second != null) {
+                    return new String[]{"start", first, second};
+                }
+            }
+            out.println("Bad parameters!");
+        }
+    }
+
+    /**
+     * Splits the current line at whitespace, at most tokenStarts.length tokens are kept
+     * @return number of tokens on the line, possibly more than were kept
+     */
+    private int tokenize(){
+        byte[] line = reader.getLine();
+        int length = reader.getLength();
+        int count = 0;
+        int i = 0;
+        while (true) {
+            while (i < length && isWhitespace(line[i])) {
+                i++;
+            }
+            if (i == length) {
+                return count;
+            }
+            int start = i;
+            while (i < length && !isWhitespace(line[i])) {
+                i++;
+            }
+            if (count < tokenStarts.length) {
+                tokenStarts[count] = start;
+                tokenEnds[count] = i;
+            }
+            count++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b){
+        return b == ' ' || (b >= '\t' && b <= '\r');
+    }
+
+    /**
+     * @return the token as a decimal int with an optional sign, NOT_A_NUMBER if it is not one
+     */
+    private int parseNumber(int token){
+        byte[] line = reader.getLine();
+        int i = tokenStarts[token];
+        int end = tokenEnds[token];
+        boolean negative = line[i] == '-';
+        if (line[i] == '-' || line[i] == '+') {
+            i++;
+        }
+        if (i == end) {
+            return NOT_A_NUMBER;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return NOT_A_NUMBER;
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Case-insensitive, like the lower-cased commands before
+     */
+    private boolean tokenEquals(int token, String word){
+        byte[] line = reader.getLine();
+        int start = tokenStarts[token];
+        if (tokenEnds[token] - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase((char) line[start + i]) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the matching entry of PLAYER_TYPES, null when the token is none of them
+     */
+    private String playerType(int token){
+        for (String type : PLAYER_TYPES) {
+            if (tokenEquals(token, type)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private void prompt(String text){
+        if (prompts) {
+            out.print(text);
+        }
+    }
+
+    private  int convertToIndex(int row, int col){
+        return (row - 1) * boardSize + col -1;
+    }
+
+    public boolean isValidCoordinate(int row, int col){
+        if(row < 1 || row > boardSize || col < 1 || col > boardSize) {
+            out.println("Coordinates should be from 1 to " + boardSize + "!");
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isOccupiedPosition(int index, char[] board){
+        if(index >= 0 && board[index] !='_') {
+            out.println("This cell is occupied! Choose another one!");
+            return true;
+        }
+        return false;
+    }
+}
+
+interface GameListener {
+    default void onTurn(Player player) {
+    }
+
+    void onMove(Player player, int moveIndex);
+
+    /**
+     * The player picked a taken cell and is asked again
+     */
+    default void onOccupied(Player player, int moveIndex) {
+    }
+
+    /**
+     * @param winner symbol of the winner, '_' for a draw
+     */
+    void onGameOver(char winner);
+}
+
+/**
+ * Drives one game by events: a move is asked for, and the game goes on when it arrives.
+ * Moves that are ready at once are played in a loop, the others resume on the continuation
+ * executor, so one thread can run any number of sessions.
+ */
+class GameSession {
+    /**
+     * Continuation for players that answer at once, a plain class so the console
+     * path bootstraps no lambda before the first move
+     */
+    static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable task){
+            task.run();
+        }
+    };
+
+    private final Player[] players;
+    private final GameState state;
+    private final GameListener listener;
+    private final Executor continuation;
+    private final CompletableFuture<Character> result = new CompletableFuture<>();
+    private int currentPlayerIndex;
+    private boolean finished;
+
+    /**
+     * @param continuation runs the rest of the game once a late move arrives
+     */
+    public GameSession(Player[] players, GameState state, GameListener listener, Executor continuation){
+        this.players = players;
+        this.state = state;
+        this.listener = listener;
+        this.continuation = continuation;
+    }
+
+    /**
+     * @return future of the winner's symbol, '_' for a draw
+     */
+    public CompletableFuture<Character> start(){
+        advance();
+        return result;
+    }
+
+    private void advance(){
+        while (!finished) {
+            Player player = players[currentPlayerIndex];
+            listener.onTurn(player);
+            CompletableFuture<Integer> move = player.requestMove(state);
+            if (!move.isDone()) {
+                move.whenCompleteAsync(this::resume, continuation);
+                return;
+            }
+            Integer moveIndex;
+            try {
+                moveIndex = move.join();
+            } catch (CompletionException | CancellationException e) {
+                fail(e);
+                return;
+            }
+            play(moveIndex);
+        }
+    }
+
+    private void resume(Integer moveIndex, Throwable error){
+        if (error != null) {
+            fail(error);
+            return;
+        }
+        play(moveIndex);
+        advance();
+    }
+
+    private void play(int moveIndex){
+        Player player = players[currentPlayerIndex];
+        if (state.getBoard()[moveIndex] != '_') {
+            listener.onOccupied(player, moveIndex);
+            return;
+        }
+        state.processMove(moveIndex, player.getSymbol());
+        listener.onMove(player, moveIndex);
+        if (state.checkWin(moveIndex)) {
+            state.setGameWinner(true);
+            end(player.getSymbol());
+        } else if (state.checkDraw()) {
+            end('_');
+        } else {
+            currentPlayerIndex = (currentPlayerIndex + 1) % players.length;
+        }
+    }
+
+    private void end(char winner){
+        finished = true;
+        listener.onGameOver(winner);
+        result.complete(winner);
+    }
+
+    private void fail(Throwable error){
+        finished = true;
+        result.completeExceptionally(error);
+    }
+}
+
+class GameRun{
+    InputHandler inputHandler;
+    private final Player[] players;
+    // level names as typed, the console shows these rather than the engine behind them
+    private final String[] types = new String[2];
+    private final GameState state;
+
+
+    public GameRun(){
+        inputHandler = Configuration.inputHandler;
+        players = new Player[2];
+        state = new GameState();
+    }
+
+    public boolean gameInitialization(){
+        String[] gamePattern = inputHandler.gamePatternSelection();
+        if (gamePattern == null){
+            return false;
+        }else{
+            PlayerFactory playerFactory = new PlayerFactory();
+            players[0] = playerFactory.createPlayer(gamePattern[1], 'X');
+            players[1] = playerFactory.createPlayer(gamePattern[2], 'O');
+            types[0] = gamePattern[1];
+            types[1] = gamePattern[2];
+            return true;
+        }
+    }
+
+    public void gameLoop(){
+        if (!gameInitialization()){
+            return;
+        }
+
+        ConsoleRenderer renderer = new ConsoleRenderer(System.out, Configuration.RENDER_EVERY);
+        renderer.startGame(state);
+        GameListener console = new GameListener() {
+            @Override
+            public void onMove(Player player, int moveIndex) {
+                renderer.move(state, player instanceof AIPlayer
+                        ? "Making move level \"" + types[player == players[0] ? 0 : 1] + "\"" : null);
+            }
+
+            @Override
+            public void onGameOver(char winner) {
+                renderer.gameOver(state, winner == '_' ? "Draw" : winner + " wins");
+            }
+        };
+        if (Configuration.RECORDS_DIR == null) {
+            // console players answer at once, so the whole game runs right here
+            new GameSession(players, state, console, GameSession.SAME_THREAD).start().join();
+            return;
+        }
+        try (GameRecordWriter records = new GameRecordWriter(Path.of(Configuration.RECORDS_DIR), "games",
+                Configuration.SEGMENT_BYTES)) {
+            GameRecorder recorder = new GameRecorder(records, state.getSize() * state.getSize(), console);
+            new GameSession(players, state, recorder, GameSession.SAME_THREAD).start().join();
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Could not record the game: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * Plays one game after another from a script on stdin, in the console command language
+ * (start &lt;p1&gt; &lt;p2&gt;, row col for the users, exit) but without prompts or boards.
+ * The GameState and the players of each type are reused across games, and every game
+ * leaves one line: the result, then the moves as row,col.
+ */
+class BatchRun {
+    private final PrintStream out;
+    private final InputHandler inputHandler;
+    private final GamePool pool;
+    private final StringBuilder line = new StringBuilder();
+    private GameState state;
+    private final long[] results = new long[3];
+    private final GameListener recorder = new GameListener() {
+        @Override
+        public void onMove(Player player, int moveIndex){
+            int size = state.getSize();
+            line.append(' ').append(moveIndex / size + 1).append(',').append(moveIndex % size + 1);
+        }
+
+        @Override
+        public void onGameOver(char winner){
+            results[GameRecord.result(winner)]++;
+            out.append(winner == '_' ? "Draw" : winner + " wins").append(':').append(line).println();
+        }
+    };
+
+    public BatchRun(PrintStream out){
+        this.out = out;
+        inputHandler = new InputHandler(out, false);
+        PlayerFactory playerFactory = new PlayerFactory();
+        pool = new GamePool((type, symbol) -> type.equals("user")
+                ? new HumanPlayer(symbol, inputHandler)
+                : new AIPlayer(symbol, playerFactory.createStrategy(type)));
+    }
+
+    public static void main(String[] args){
+        // one write per 64 KB of results, flushed once at the end
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                false);
+        try {
+            new BatchRun(out).run();
+        } finally {
+            out.flush();
+        }
+    }
+
+    public void run(){
+        String[] gamePattern;
+        while ((gamePattern = inputHandler.gamePatternSelection()) != null) {
+            GamePool.Game game = pool.acquire(gamePattern[1], gamePattern[2]);
+            state = game.state;
+            line.setLength(0);
+            try {
+                new GameSession(game.players, state, recorder, GameSession.SAME_THREAD).start().join();
+            } catch (NoSuchElementException e) {
+                out.println("Input ended during a game");
+                break;
+            }
+            pool.release(game);
+        }
+        out.println(String.format("%d games, X wins/draws/O wins: %d/%d/%d, boards created/reused: %d/%d",
+                results[GameRecord.X_WINS] + results[GameRecord.DRAW] + results[GameRecord.O_WINS],
+                results[GameRecord.X_WINS], results[GameRecord.DRAW], results[GameRecord.O_WINS],
+                pool.getCreated(), pool.getReused()));
+    }
+
+}
+
+/**
+ * Keeps finished games for the next ones instead of building new boards and players.
+ * acquire() hands out a Game with a cleared board and reset players, release() takes it back.
+ * Players are made by the factory once per type and symbol in use at the same time, then reused.
+ * Not thread-safe: one pool per thread, e.g. the server's selector thread.
+ */
+class GamePool {
+    /**
+     * A board and the players seated at it, players[0] plays X
+     */
+    static final class Game {
+        final GameState state = new GameState();
+        final Player[] players = new Player[2];
+        private final String[] types = new String[2];
+    }
+
+    private final BiFunction<String, Character, Player> playerFactory;
+    private final ArrayDeque<Game> freeGames = new ArrayDeque<>();
+    // free players by type, one map per symbol
+    private final List<Map<String, ArrayDeque<Player>>> freePlayers = List.of(new HashMap<>(), new HashMap<>());
+    private long created;
+    private long reused;
+
+    /**
+     * @param playerFactory makes a player of the given type and symbol
+     */
+    public GamePool(BiFunction<String, Character, Player> playerFactory){
+        this.playerFactory = playerFactory;
+    }
+
+    public Game acquire(String xType, String oType){
+        Game game = freeGames.poll();
+        if (game == null) {
+            game = new Game();
+            created++;
+        } else {
+            game.state.reset();
+            reused++;
+        }
+        seat(game, 0, xType);
+        seat(game, 1, oType);
+        return game;
+    }
+
+    private void seat(Game game, int index, String type){
+        Player player = freePlayers.get(index).computeIfAbsent(type, key -> new ArrayDeque<>()).poll();
+        if (player == null) {
+            player = playerFactory.apply(type, index == 0 ? 'X' : 'O');
+        } else {
+            player.reset();
+        }
+        game.players[index] = player;
+        game.types[index] = type;
+    }
+
+    /**
+     * Only for games nobody touches any more, a move still being searched would land on the next game
+     */
+    public void release(Game game){
+        for (int i = 0; i < 2; i++) {
+            freePlayers.get(i).get(game.types[i]).add(game.players[i]);
+            game.players[i] = null;
+        }
+        freeGames.add(game);
+    }
+
+    public long getCreated(){
+        return created;
+    }
+
+    public long getReused(){
+        return reused;
+    }
+}
+
+/**
+ * Plays AI levels against each other with no console I/O in between,
+ * then prints the results matrix and the throughput
+ */
+class SelfPlaySimulator {
+    private static final int X_WINS = 0;
+    private static final int DRAWS = 1;
+    private static final int O_WINS = 2;
+
+    private final String[] levels;
+    private final AIStrategy[] strategies;
+    private final GameState state = new GameState();
+    // results[x][o][outcome]: level x playing X against level o playing O
+    private final long[][][] results;
+    private final int[] gameMoves = new int[state.getSize() * state.getSize()];
+    private GameRecordWriter records;
+    private long moves;
+
+    public SelfPlaySimulator(String[] levels, AIStrategy[] strategies){
+        this.levels = levels;
+        this.strategies = strategies;
+        results = new long[levels.length][levels.length][3];
+    }
+
+    /**
+     * Appends every game played from now on to the given writer
+     */
+    public void recordTo(GameRecordWriter records){
+        this.records = records;
+    }
+
+    /**
+     * @param args number of games per pairing followed by two or more AI levels
+     */
+    public static void main(String[] args){
+        long games;
+        try {
+            games = Long.parseLong(args[0]);
+        } catch (NumberFormatException e) {
+            System.out.println("You should enter numbers!");
+            return;
+        }
+        String[] levels = Arrays.copyOfRange(args, 1, args.length);
+        AIStrategy[] strategies = createStrategies(levels, new SplittableRandom());
+        if (strategies == null) {
+            System.out.println("Bad parameters!");
+            return;
+        }
+        SelfPlaySimulator simulator = new SelfPlaySimulator(levels, strategies);
+        long start = System.nanoTime();
+        if (Configuration.RECORDS_DIR == null) {
+            simulator.run(games);
+        } else {
+            try (GameRecordWriter records = new GameRecordWriter(Path.of(Configuration.RECORDS_DIR), "games",
+                    Configuration.SEGMENT_BYTES)) {
+                simulator.recordTo(records);
+                simulator.run(games);
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Could not record the games: " + e.getMessage());
+                return;
+            }
+        }
+        simulator.printReport(System.nanoTime() - start);
+    }
+
+    /**
+     * @return one new strategy per level, null if a level is unknown
+     */
+    static AIStrategy[] createStrategies(String[] levels, SplittableRandom random){
+        AIStrategy[] strategies = new AIStrategy[levels.length];
+        PlayerFactory playerFactory = new PlayerFactory();
+        for (int i = 0; i < levels.length; i++) {
+            strategies[i] = playerFactory.createStrategy(levels[i], random.split());
+            if (strategies[i] == null) {
+                return null;
+            }
+        }
+        return strategies;
+    }
+
+    /**
+     * Plays every ordered pairing of levels, so each level gets to go first
+     */
+    public void run(long gamesPerPairing){
+        for (int x = 0; x < strategies.length; x++) {
+            for (int o = 0; o < strategies.length; o++) {
+                for (long g = 0; g < gamesPerPairing; g++) {
+                    results[x][o][playGame(strategies[x], strategies[o])]++;
+                }
+            }
+        }
+    }
+
+    private int playGame(AIStrategy xStrategy, AIStrategy oStrategy){
+        state.reset();
+        xStrategy.reset();
+        oStrategy.reset();
+        char symbol = 'X';
+        int moveCount = 0;
+        while (true) {
+            int moveIndex = (symbol == 'X' ? xStrategy : oStrategy).generateMove(state, symbol);
+            state.processMove(moveIndex, symbol);
+            gameMoves[moveCount++] = moveIndex;
+            moves++;
+            if (state.checkWin(moveIndex)) {
+                record(symbol, moveCount);
+                return symbol == 'X' ? X_WINS : O_WINS;
+            }
+            if (state.checkDraw()) {
+                record('_', moveCount);
+                return DRAWS;
+            }
+            symbol = (symbol == 'X') ? 'O' : 'X';
+        }
+    }
+
+    private void record(char winner, int moveCount){
+        if (records == null) {
+            return;
+        }
+        try {
+            records.append(winner, gameMoves, moveCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long[][][] getResults(){
+        return results;
+    }
+
+    public long getMoves(){
+        return moves;
+    }
+
+    public void printReport(long elapsedNanos){
+        printReport(levels, results, moves, elapsedNanos);
+        for (int i = 0; i < strategies.length; i++) {
+            AIStrategy strategy = strategies[i];
+            if (strategy instanceof CachedStrategy cached) {
+                System.out.println(levels[i] + " move cache: " + cached.getTable());
+                strategy = cached.getStrategy();
+            }
+            if (strategy instanceof HardStrategy hard) {
+                System.out.println(levels[i] + " search table: " + hard.getTable());
+            }
+        }
+    }
+
+    static void printReport(String[] levels, long[][][] results, long moves, long elapsedNanos){
+        long games = 0;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s", "X \\ O"));
+        for (String level : levels) {
+            report.append(String.format("%24s", level));
+        }
+        report.append(System.lineSeparator());
+        for (int x = 0; x < levels.length; x++) {
+            report.append(String.format("%-10s", levels[x]));
+            for (int o = 0; o < levels.length; o++) {
+                long[] outcome = results[x][o];
+                games += outcome[X_WINS] + outcome[DRAWS] + outcome[O_WINS];
+                report.append(String.format("%24s", outcome[X_WINS] + "/" + outcome[DRAWS] + "/" + outcome[O_WINS]));
+            }
+            report.append(System.lineSeparator());
+        }
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        report.append("cells read X wins/draws/O wins").append(System.lineSeparator());
+        report.append(String.format("%d games, %d moves in %.3f s: %.0f games/sec, %.0f moves/sec",
+                games, moves, seconds, games / seconds, moves / seconds));
+        System.out.println(report);
+    }
+}
+
+/**
+ * Shards the self-play games across worker threads. Every worker has its own GameState,
+ * strategies and random stream, and adds its totals to shared LongAdders once at the end.
+ */
+class ParallelSelfPlay {
+    private final String[] levels;
+    private final int threads;
+    private final LongAdder[][][] results;
+    private final LongAdder moves = new LongAdder();
+
+    public ParallelSelfPlay(String[] levels, int threads){
+        this.levels = levels;
+        this.threads = threads;
+        results = new LongAdder[levels.length][levels.length][3];
+        for (LongAdder[][] row : results) {
+            for (LongAdder[] cell : row) {
+                for (int i = 0; i < cell.length; i++) {
+                    cell[i] = new LongAdder();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param args number of games per pairing followed by two or more AI levels,
+     *             the thread count comes from -Dtictactoe.threads and defaults to all cores
+     */
+    public static void main(String[] args){
+        long games;
+        try {
+            games = Long.parseLong(args[0]);
+        } catch (NumberFormatException e) {
+            System.out.println("You should enter numbers!");
+            return;
+        }
+        String[] levels = Arrays.copyOfRange(args, 1, args.length);
+        if (SelfPlaySimulator.createStrategies(levels, new SplittableRandom()) == null) {
+            System.out.println("Bad parameters!");
+            return;
+        }
+        int threads = Configuration.THREADS;
+        ParallelSelfPlay tournament = new ParallelSelfPlay(levels, threads);
+        long start = System.nanoTime();
+        try {
+            tournament.run(games);
+        } catch (UncheckedIOException e) {
+            System.out.println("Could not record the games: " + e.getMessage());
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(threads + " threads");
+        SelfPlaySimulator.printReport(levels, tournament.getResults(), tournament.moves.sum(), elapsed);
+    }
+
+    public void run(long gamesPerPairing){
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            SplittableRandom seeds = new SplittableRandom();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(threads);
+            for (int worker = 0; worker < threads; worker++) {
+                long share = gamesPerPairing / threads + (worker < gamesPerPairing % threads ? 1 : 0);
+                SplittableRandom random = seeds.split();
+                int index = worker;
+                tasks.add(pool.submit(() -> runShard(index, share, random)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void runShard(int worker, long games, SplittableRandom random){
+        SelfPlaySimulator simulator = new SelfPlaySimulator(levels, SelfPlaySimulator.createStrategies(levels, random));
+        if (Configuration.RECORDS_DIR == null) {
+            simulator.run(games);
+        } else {
+            // segments are per worker, so no writer is ever shared
+            try (GameRecordWriter records = new GameRecordWriter(Path.of(Configuration.RECORDS_DIR),
+                    "games-" + worker, Configuration.SEGMENT_BYTES)) {
+                simulator.recordTo(records);
+                simulator.run(games);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        long[][][] shard = simulator.getResults();
+        for (int x = 0; x < levels.length; x++) {
+            for (int o = 0; o < levels.length; o++) {
+                for (int outcome = 0; outcome < 3; outcome++) {
+                    results[x][o][outcome].add(shard[x][o][outcome]);
+                }
+            }
+        }
+        moves.add(simulator.getMoves());
+    }
+
+    public long[][][] getResults(){
+        long[][][] totals = new long[levels.length][levels.length][3];
+        for (int x = 0; x < levels.length; x++) {
+            for (int o = 0; o < levels.length; o++) {
+                for (int outcome = 0; outcome < 3; outcome++) {
+                    totals[x][o][outcome] = results[x][o][outcome].sum();
+                }
+            }
+        }
+        return totals;
+    }
+}
+
+/**
+ * Binary layout of the game logs, shared by the writer and the readers.
+ *
+ * segment: "TTTR" | version | board size | win length | 0 | records...
+ * record:  varint (move count &lt;&lt; 2 | result) | one varint per move index
+ *
+ * Varints are little-endian base 128, so every move on boards up to 11x11 takes a single byte
+ * and a 3x3 game fits in at most ten.
+ */
+final class GameRecord {
+    static final int MAGIC = 0x54545452; // "TTTR"
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int DRAW = 0;
+    static final int X_WINS = 1;
+    static final int O_WINS = 2;
+    static final int MAX_VARINT = 5;
+
+    private GameRecord(){
+    }
+
+    static int result(char winner){
+        return winner == 'X' ? X_WINS : winner == 'O' ? O_WINS : DRAW;
+    }
+
+    static char winner(int result){
+        return result == X_WINS ? 'X' : result == O_WINS ? 'O' : '_';
+    }
+
+    static void putVarint(ByteBuffer out, int value){
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
+
+/**
+ * Appends game records to numbered segment files (prefix-000000.rec, prefix-000001.rec, ...).
+ * Records are packed into one direct buffer and written with a single FileChannel call
+ * whenever it fills up; a new segment starts once the current one would pass the size limit,
+ * so no record ever spans two files. Not thread-safe: give every writing thread its own prefix.
+ */
+class GameRecordWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final String prefix;
+    private final long segmentBytes;
+    private final int boardSize;
+    private final int winLength;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+    private long segmentSize;
+    private int nextSegment;
+    private long records;
+
+    public GameRecordWriter(Path directory, String prefix, long segmentBytes) throws IOException {
+        this(directory, prefix, segmentBytes, Configuration.BOARD_SIZE, Configuration.WIN_LENGTH);
+    }
+
+    public GameRecordWriter(Path directory, String prefix, long segmentBytes, int boardSize, int winLength)
+            throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentBytes = segmentBytes;
+        this.boardSize = boardSize;
+        this.winLength = winLength;
+        Files.createDirectories(directory);
+        // carry on after the segments an earlier run left behind
+        while (Files.exists(segmentPath(nextSegment))) {
+            nextSegment++;
+        }
+        openSegment();
+    }
+
+    private Path segmentPath(int segment){
+        return directory.resolve(String.format("%s-%06d.rec", prefix, segment));
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(nextSegment++), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        buffer.putInt(GameRecord.MAGIC).put((byte) GameRecord.VERSION)
+                .put((byte) boardSize).put((byte) winLength).put((byte) 0);
+        segmentSize = GameRecord.HEADER;
+    }
+
+    /**
+     * @param winner 'X', 'O' or '_' for a draw
+     * @param moves  the move indices in the order they were played
+     */
+    public void append(char winner, int[] moves, int moveCount) throws IOException {
+        int maxSize = (moveCount + 1) * GameRecord.MAX_VARINT;
+        if (segmentSize + maxSize > segmentBytes && segmentSize > GameRecord.HEADER) {
+            flush();
+            channel.close();
+            openSegment();
+        }
+        if (buffer.remaining() < maxSize) {
+            flush();
+        }
+        int start = buffer.position();
+        GameRecord.putVarint(buffer, moveCount << 2 | GameRecord.result(winner));
+        for (int i = 0; i < moveCount; i++) {
+            GameRecord.putVarint(buffer, moves[i]);
+        }
+        segmentSize += buffer.position() - start;
+        records++;
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public long getRecords(){
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
+
+/**
+ * Walks the records of one segment straight out of a read-only mapping of the file.
+ * next() decodes the following record into a reused move array, nothing is copied or
+ * allocated per game.
+ */
+class GameRecordReader {
+    private final ByteBuffer records;
+    private final int boardSize;
+    private final int winLength;
+    private int[] moves = new int[64];
+    private int moveCount;
+    private int result;
+
+    private GameRecordReader(ByteBuffer records, int boardSize, int winLength){
+        this.records = records;
+        this.boardSize = boardSize;
+        this.winLength = winLength;
+    }
+
+    public static GameRecordReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < GameRecord.HEADER || channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("unexpected size " + channel.size());
+            }
+            // the mapping stays valid after the channel is closed
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != GameRecord.MAGIC || mapped.get(4) != GameRecord.VERSION) {
+                throw new IllegalStateException("bad header");
+            }
+            int boardSize = mapped.get(5) & 0xFF;
+            int winLength = mapped.get(6) & 0xFF;
+            return new GameRecordReader(mapped.slice(GameRecord.HEADER, (int) channel.size() - GameRecord.HEADER),
+                    boardSize, winLength);
+        }
+    }
+
+    /**
+     * @return false once the segment is exhausted
+     */
+    public boolean next(){
+        if (!records.hasRemaining()) {
+            return false;
+        }
+        int header = getVarint();
+        result = header & 0x03;
+        moveCount = header >>> 2;
+        if (moveCount > boardSize * boardSize) {
+            // a torn or corrupt record, nothing after it can be trusted
+            throw new IllegalStateException("bad move count " + moveCount + " at byte " + records.position());
+        }
+        if (moveCount > moves.length) {
+            moves = new int[Math.max(moveCount, moves.length * 2)];
+        }
+        for (int i = 0; i < moveCount; i++) {
+            moves[i] = getVarint();
+        }
+        return true;
+    }
+
+    private int getVarint(){
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!records.hasRemaining()) {
+                throw new IllegalStateException("record cut off at byte " + records.position());
+            }
+            byte b = records.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("bad varint at byte " + records.position());
+    }
+
+    /**
+     * @return GameRecord.DRAW, X_WINS or O_WINS
+     */
+    public int getResult(){
+        return result;
+    }
+
+    public int getMoveCount(){
+        return moveCount;
+    }
+
+    public int getMove(int i){
+        return moves[i];
+    }
+
+    public int getBoardSize(){
+        return boardSize;
+    }
+
+    public int getWinLength(){
+        return winLength;
+    }
+
+    public long getBytes(){
+        return records.capacity() + GameRecord.HEADER;
+    }
+}
+
+/**
+ * Replays recorded games through GameState and checks every move and the stored result.
+ * Games can be filtered by result and by their opening moves; the totals cover the games kept.
+ */
+class GameReplay {
+    private static final int ANY_RESULT = -1;
+
+    private final GameState state = new GameState();
+    private final int resultFilter;
+    private final int[] opening;
+    private final long[] results = new long[3];
+    private long games;
+    private long matched;
+    private long invalid;
+    private long moves;
+    private long bytes;
+
+    public GameReplay(int resultFilter, int[] opening){
+        this.resultFilter = resultFilter;
+        this.opening = opening;
+    }
+
+    /**
+     * @param args file or directory of segments, the result to keep (x, o, draw or any),
+     *             then optionally the opening moves to keep as row,col pairs
+     */
+    public static void main(String[] args){
+        int resultFilter = parseResult(args[1]);
+        int[] opening = parseOpening(Arrays.copyOfRange(args, 2, args.length));
+        if (resultFilter == -2 || opening == null) {
+            System.out.println("Bad parameters!");
+            return;
+        }
+        GameReplay replay = new GameReplay(resultFilter, opening);
+        long start = System.nanoTime();
+        try {
+            replay.replayAll(Path.of(args[0]));
+        } catch (IOException e) {
+            System.out.println("Could not read the records: " + e.getMessage());
+            return;
+        }
+        replay.printReport(System.nanoTime() - start);
+    }
+
+    /**
+     * @return the result code, ANY_RESULT for any, -2 if the word is unknown
+     */
+    private static int parseResult(String word){
+        switch (word) {
+            case "x":
+                return GameRecord.X_WINS;
+            case "o":
+                return GameRecord.O_WINS;
+            case "draw":
+                return GameRecord.DRAW;
+            case "any":
+                return ANY_RESULT;
+            default:
+                return -2;
+        }
+    }
+
+    /**
+     * @return the move indices, null if a move is not a row,col pair on the board
+     */
+    private static int[] parseOpening(String[] pairs){
+        int size = Configuration.BOARD_SIZE;
+        int[] opening = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] coordinates = pairs[i].split(",");
+            if (coordinates.length != 2) {
+                return null;
+            }
+            int row;
+            int col;
+            try {
+                row = Integer.parseInt(coordinates[0]);
+                col = Integer.parseInt(coordinates[1]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (row < 1 || row > size || col < 1 || col > size) {
+                return null;
+            }
+            opening[i] = (row - 1) * size + col - 1;
+        }
+        return opening;
+    }
+
+    /**
+     * Replays one segment file, or every .rec file in a directory in name order
+     */
+    public void replayAll(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            replay(path);
+            return;
+        }
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.rec")) {
+            files.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        for (Path segment : segments) {
+            replay(segment);
+        }
+    }
+
+    public void replay(Path segment) throws IOException {
+        GameRecordReader reader;
+        try {
+            reader = GameRecordReader.open(segment);
+        } catch (IllegalStateException e) {
+            System.out.println(segment + " skipped: " + e.getMessage());
+            return;
+        }
+        if (reader.getBoardSize() != state.getSize() || reader.getWinLength() != state.getWinLength()) {
+            System.out.println(segment + " skipped: recorded with -Dtictactoe.size=" + reader.getBoardSize()
+                    + " -Dtictactoe.win=" + reader.getWinLength());
+            return;
+        }
+        bytes += reader.getBytes();
+        try {
+            while (reader.next()) {
+                games++;
+                if (keep(reader)) {
+                    matched++;
+                    if (isValid(reader)) {
+                        results[reader.getResult()]++;
+                        moves += reader.getMoveCount();
+                    } else {
+                        invalid++;
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            // a torn tail from an interrupted writer, the records before it are fine
+            System.out.println(segment + " truncated: " + e.getMessage());
+        }
+    }
+
+    private boolean keep(GameRecordReader reader){
+        if (resultFilter != ANY_RESULT && reader.getResult() != resultFilter) {
+            return false;
+        }
+        if (reader.getMoveCount() < opening.length) {
+            return false;
+        }
+        for (int i = 0; i < opening.length; i++) {
+            if (reader.getMove(i) != opening[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether every move lands on an empty cell before the game is over
+     *         and the game ends the way the record says
+     */
+    private boolean isValid(GameRecordReader reader){
+        state.reset();
+        int cells = state.getSize() * state.getSize();
+        char symbol = 'X';
+        for (int i = 0; i < reader.getMoveCount(); i++) {
+            int moveIndex = reader.getMove(i);
+            if (moveIndex < 0 || moveIndex >= cells || state.getBoard()[moveIndex] != '_') {
+                return false;
+            }
+            state.processMove(moveIndex, symbol);
+            boolean last = i == reader.getMoveCount() - 1;
+            if (state.checkWin(moveIndex)) {
+                return last && reader.getResult() == GameRecord.result(symbol);
+            }
+            if (state.checkDraw()) {
+                return last && reader.getResult() == GameRecord.DRAW;
+            }
+            symbol = (symbol == 'X') ? 'O' : 'X';
+        }
+        // the record stops before the game is over
+        return false;
+    }
+
+    public void printReport(long elapsedNanos){
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        System.out.println(String.format("%d games read, %d kept, %d invalid", games, matched, invalid));
+        System.out.println(String.format("kept X wins/draws/O wins: %d/%d/%d, %d moves",
+                results[GameRecord.X_WINS], results[GameRecord.DRAW], results[GameRecord.O_WINS], moves));
+        System.out.println(String.format("%.1f MB in %.3f s: %.0f games/sec, %.1f MB/sec",
+                bytes / 1e6, seconds, games / seconds, bytes / 1e6 / seconds));
+    }
+}
+
+/**
+ * Win/draw/loss counters per position in open addressing: keys and counters live in flat
+ * primitive arrays, three counters per slot in GameRecord result order. The table is kept
+ * at most half full; the owner spills it once isFull() says so.
+ */
+class PositionCounterMap {
+    // 0 marks an empty slot, a real key of 0 is stored as EMPTY_ALIAS
+    static final long EMPTY_ALIAS = 1L;
+
+    private final long[] keys;
+    private final long[] counts;
+    private final int indexMask;
+    private final int limit;
+    private int size;
+
+    public PositionCounterMap(int maxEntries){
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, 2)) << 1;
+        if (capacity < 2 * maxEntries) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        counts = new long[capacity * 3];
+        indexMask = capacity - 1;
+        limit = maxEntries;
+    }
+
+    public void add(long key, int result){
+        key = (key == 0) ? EMPTY_ALIAS : key;
+        int slot = (int) (key ^ (key >>> 32)) & indexMask;
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+                break;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+        counts[slot * 3 + result]++;
+    }
+
+    public boolean isFull(){
+        return size >= limit;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Moves the entries to the front of the arrays in ascending key order. The map can only be
+     * read through getKey/getCount after this, until clear().
+     */
+    public void sort(){
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                keys[n] = keys[slot];
+                System.arraycopy(counts, slot * 3, counts, n * 3, 3);
+                n++;
+            }
+        }
+        sort(0, n - 1);
+    }
+
+    private void sort(int low, int high){
+        while (high - low > 16) {
+            long pivot = medianOfThree(keys[low], keys[(low + high) >>> 1], keys[high]);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // recurse into the smaller half so the stack stays logarithmic
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && keys[j - 1] > keys[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private static long medianOfThree(long a, long b, long c){
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private void swap(int i, int j){
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        for (int k = 0; k < 3; k++) {
+            long count = counts[i * 3 + k];
+            counts[i * 3 + k] = counts[j * 3 + k];
+            counts[j * 3 + k] = count;
+        }
+    }
+
+    public long getKey(int i){
+        return keys[i];
+    }
+
+    public long getCount(int i, int result){
+        return counts[i * 3 + result];
+    }
+
+    public void clear(){
+        Arrays.fill(keys, 0L);
+        Arrays.fill(counts, 0L);
+        size = 0;
+    }
+}
+
+/**
+ * Aggregates X wins/draws/O wins for every position reached in the recorded games.
+ * Positions are keyed by ZobristHash.canonicalHash(X stones, O stones), kept up to date move
+ * by move for all 8 symmetries, so symmetric positions share one entry on any board size.
+ * When the in-memory map fills up it is written out as a sorted run and emptied; the runs are
+ * merged at the end, so the heap stays bounded whatever the number of positions.
+ *
+ * output: "TTTS" | version | board size | win length | 0 | long entry count
+ *         | entries in ascending (signed) key order: long key, long X wins, long draws, long O wins
+ */
+class PositionStats {
+    static final int MAGIC = 0x54545453; // "TTTS"
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+    static final int ENTRY = 32;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // runs merged at once, each open run holds one read buffer
+    private static final int MAX_FAN_IN = 64;
+
+    private final Path output;
+    private final PositionCounterMap counters;
+    private List<Path> runs = new ArrayList<>();
+    private int nextRun;
+    private int spills;
+    private final long[] hashes = new long[ZobristHash.SYMMETRIES];
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+    private long games;
+    private long positions;
+    private long skipped;
+    private long entries;
+
+    public PositionStats(Path output, int maxEntries){
+        this.output = output;
+        counters = new PositionCounterMap(maxEntries);
+    }
+
+    /**
+     * @param args file or directory of game records and the statistics file to write,
+     *             the in-memory entry budget comes from -Dtictactoe.statsEntries
+     */
+    public static void main(String[] args){
+        int maxEntries = Integer.getInteger("tictactoe.statsEntries", 1 << 20);
+        PositionStats stats = new PositionStats(Path.of(args[1]), maxEntries);
+        long start = System.nanoTime();
+        try {
+            stats.addAll(Path.of(args[0]));
+            stats.finish();
+        } catch (IOException e) {
+            System.out.println("Could not build the statistics: " + e.getMessage());
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d games (%d skipped), %d positions, %d distinct, %d runs spilled",
+                stats.games, stats.skipped, stats.positions, stats.entries, stats.spills));
+        System.out.println(String.format("%.3f s: %.0f games/sec", seconds, stats.games / seconds));
+    }
+
+    /**
+     * Adds one segment file, or every .rec file in a directory
+     */
+    public void addAll(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            add(path);
+            return;
+        }
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.rec")) {
+            files.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        for (Path segment : segments) {
+            add(segment);
+        }
+    }
+
+    public void add(Path segment) throws IOException {
+        GameRecordReader reader;
+        try {
+            reader = GameRecordReader.open(segment);
+        } catch (IllegalStateException e) {
+            System.out.println(segment + " skipped: " + e.getMessage());
+            return;
+        }
+        if (reader.getBoardSize() != Configuration.BOARD_SIZE || reader.getWinLength() != Configuration.WIN_LENGTH) {
+            System.out.println(segment + " skipped: recorded with -Dtictactoe.size=" + reader.getBoardSize()
+                    + " -Dtictactoe.win=" + reader.getWinLength());
+            return;
+        }
+        try {
+            while (reader.next()) {
+                addGame(reader);
+            }
+        } catch (IllegalStateException e) {
+            System.out.println(segment + " truncated: " + e.getMessage());
+        }
+    }
+
+    private void addGame(GameRecordReader reader) throws IOException {
+        int result = reader.getResult();
+        if (result > GameRecord.O_WINS) {
+            skipped++;
+            return;
+        }
+        for (int i = 0; i < reader.getMoveCount(); i++) {
+            int move = reader.getMove(i);
+            if (move < 0 || move >= cells) {
+                skipped++;
+                return;
+            }
+        }
+        games++;
+        Arrays.fill(hashes, 0L);
+        for (int i = 0; i < reader.getMoveCount(); i++) {
+            int side = i & 1;
+            int move = reader.getMove(i);
+            long canonical = hashes[0] ^= ZobristHash.key(side, move, 0);
+            for (int symmetry = 1; symmetry < hashes.length; symmetry++) {
+                long h = hashes[symmetry] ^= ZobristHash.key(side, move, symmetry);
+                if (Long.compareUnsigned(h, canonical) < 0) {
+                    canonical = h;
+                }
+            }
+            counters.add(canonical, result);
+            positions++;
+            if (counters.isFull()) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * Writes the sorted counters to the output file, merging them with the spilled runs if any
+     */
+    public void finish() throws IOException {
+        if (runs.isEmpty()) {
+            counters.sort();
+            try (FileChannel out = create(output)) {
+                writeHeader(out, counters.size());
+                for (int i = 0; i < counters.size(); i++) {
+                    put(out, counters.getKey(i), counters.getCount(i, GameRecord.X_WINS),
+                            counters.getCount(i, GameRecord.DRAW), counters.getCount(i, GameRecord.O_WINS));
+                }
+                flush(out);
+            }
+            entries = counters.size();
+            counters.clear();
+            return;
+        }
+        if (counters.size() > 0) {
+            spill();
+        }
+        merge();
+    }
+
+    private void spill() throws IOException {
+        counters.sort();
+        Path run = nextRunPath();
+        try (FileChannel out = create(run)) {
+            for (int i = 0; i < counters.size(); i++) {
+                put(out, counters.getKey(i), counters.getCount(i, GameRecord.X_WINS),
+                        counters.getCount(i, GameRecord.DRAW), counters.getCount(i, GameRecord.O_WINS));
+            }
+            flush(out);
+        }
+        runs.add(run);
+        spills++;
+        counters.clear();
+    }
+
+    private Path nextRunPath(){
+        return output.resolveSibling(output.getFileName() + ".run" + nextRun++);
+    }
+
+    /**
+     * Merges the runs in passes of at most MAX_FAN_IN until the last pass writes the output
+     */
+    private void merge() throws IOException {
+        while (runs.size() > MAX_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                Path run = nextRunPath();
+                merge(runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size())), run, false);
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        entries = merge(runs, output, true);
+    }
+
+    /**
+     * K-way merge of sorted runs into target, counters of equal keys are summed.
+     * The inputs are deleted afterwards.
+     * @return number of entries written
+     */
+    private long merge(List<Path> inputs, Path target, boolean withHeader) throws IOException {
+        PriorityQueue<RunCursor> heads = new PriorityQueue<>(Comparator.comparingLong((RunCursor cursor) -> cursor.key));
+        long written = 0;
+        try (FileChannel out = create(target)) {
+            if (withHeader) {
+                // the entry count is patched in once it is known
+                writeHeader(out, 0);
+            }
+            for (Path run : inputs) {
+                RunCursor cursor = new RunCursor(run);
+                if (cursor.next()) {
+                    heads.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunCursor head = heads.poll();
+                long key = head.key;
+                long xWins = 0;
+                long draws = 0;
+                long oWins = 0;
+                while (head != null && head.key == key) {
+                    xWins += head.xWins;
+                    draws += head.draws;
+                    oWins += head.oWins;
+                    if (head.next()) {
+                        heads.add(head);
+                    } else {
+                        head.close();
+                    }
+                    head = heads.peek() != null && heads.peek().key == key ? heads.poll() : null;
+                }
+                put(out, key, xWins, draws, oWins);
+                written++;
+            }
+            flush(out);
+            if (withHeader) {
+                out.write(ByteBuffer.allocate(8).putLong(0, written), 8);
+            }
+        } finally {
+            for (RunCursor cursor : heads) {
+                cursor.close();
+            }
+            for (Path run : inputs) {
+                Files.deleteIfExists(run);
+            }
+        }
+        return written;
+    }
+
+    private static FileChannel create(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeHeader(FileChannel out, long count) throws IOException {
+        buffer.putInt(MAGIC).put((byte) VERSION).put((byte) Configuration.BOARD_SIZE)
+                .put((byte) Configuration.WIN_LENGTH).put((byte) 0).putLong(count);
+        flush(out);
+    }
+
+    private void put(FileChannel out, long key, long xWins, long draws, long oWins) throws IOException {
+        if (buffer.remaining() < ENTRY) {
+            flush(out);
+        }
+        buffer.putLong(key).putLong(xWins).putLong(draws).putLong(oWins);
+    }
+
+    private void flush(FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads one sorted run entry by entry through its own buffer
+     */
+    private static final class RunCursor {
+        private final FileChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long key;
+        long xWins;
+        long draws;
+        long oWins;
+
+        RunCursor(Path run) throws IOException {
+            channel = FileChannel.open(run, StandardOpenOption.READ);
+            in.flip();
+        }
+
+        boolean next() throws IOException {
+            if (in.remaining() < ENTRY) {
+                in.compact();
+                while (in.position() < ENTRY && channel.read(in) > 0) {
+                    // keep reading until a whole entry is in
+                }
+                in.flip();
+                if (in.remaining() < ENTRY) {
+                    return false;
+                }
+            }
+            key = in.getLong();
+            xWins = in.getLong();
+            draws = in.getLong();
+            oWins = in.getLong();
+            return true;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
+
+/**
+ * Collects the moves of a session and appends the finished game to a GameRecordWriter,
+ * passing every event on to the listener it wraps
+ */
+class GameRecorder implements GameListener {
+    private final GameRecordWriter records;
+    private final GameListener next;
+    private final int[] moves;
+    private int moveCount;
+
+    public GameRecorder(GameRecordWriter records, int cells, GameListener next){
+        this.records = records;
+        this.next = next;
+        moves = new int[cells];
+    }
+
+    @Override
+    public void onTurn(Player player){
+        next.onTurn(player);
+    }
+
+    @Override
+    public void onMove(Player player, int moveIndex){
+        moves[moveCount++] = moveIndex;
+        next.onMove(player, moveIndex);
+    }
+
+    @Override
+    public void onOccupied(Player player, int moveIndex){
+        next.onOccupied(player, moveIndex);
+    }
+
+    @Override
+    public void onGameOver(char winner){
+        try {
+            records.append(winner, moves, moveCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            moveCount = 0;
+        }
+        next.onGameOver(winner);
+    }
+}
+
+/**
+ * Plays remote users against the AI over TCP, one line per command.
+ * A single selector thread does all the socket I/O and runs every GameSession. The user is a
+ * RemotePlayer fed from the socket, the AI searches on a small pool and its moves come back
+ * to the selector thread. Every connection owns fixed-size buffers and one GameState.
+ *
+ * client: start user &lt;level&gt; | start &lt;level&gt; user | &lt;row&gt; &lt;col&gt; | exit
+ * server: START &lt;your symbol&gt; | MOVE &lt;row&gt; &lt;col&gt; | X wins | O wins | Draw | the console error messages
+ */
+class GameServer {
+    // single-threaded levels only: "parallel" brings its own search threads and tree, one per AI thread
+    // would multiply them past the bounded AI pool
+    static final Set<String> LEVELS = Set.of("easy", "medium", "hard");
+    // player type of the user in the pool
+    private static final String REMOTE = "remote";
+    private static final int LINE_LIMIT = 64;
+    private static final int OUTPUT_LIMIT = 1024;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService aiPool;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    // continuations of the sessions always run on the selector thread
+    private final Executor selectorExecutor;
+    private final Map<String, AIStrategy> strategies = new HashMap<>();
+    private final GamePool pool;
+    private final AtomicInteger activeMatches = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public GameServer(int port, int aiThreads) throws IOException {
+        selector = Selector.open();
+        selectorExecutor = task -> {
+            selectorTasks.add(task);
+            selector.wakeup();
+        };
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        aiPool = Executors.newFixedThreadPool(aiThreads, runnable -> {
+            Thread thread = new Thread(runnable, "server-ai");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String level : LEVELS) {
+            strategies.put(level, new PerThreadStrategy(level));
+        }
+        pool = new GamePool((type, symbol) -> type.equals(REMOTE)
+                ? new RemotePlayer(symbol) : new AIPlayer(symbol, strategies.get(type), aiPool));
+    }
+
+    private final class Connection implements GameListener {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(LINE_LIMIT);
+        final ByteBuffer out = ByteBuffer.allocate(OUTPUT_LIMIT);
+        SelectionKey key;
+        GamePool.Game game;
+        RemotePlayer user;
+        boolean userTurn;
+        boolean inGame;
+        boolean closeAfterWrite;
+        boolean readingInput;
+
+        Connection(SocketChannel channel){
+            this.channel = channel;
+        }
+
+        @Override
+        public void onTurn(Player player){
+            if (!key.isValid()) {
+                // the connection dropped while the AI was thinking
+                return;
+            }
+            // input is only read while it is the user's turn, or between games
+            userTurn = player == user;
+            key.interestOps(userTurn ? key.interestOps() | SelectionKey.OP_READ
+                    : key.interestOps() & ~SelectionKey.OP_READ);
+            if (userTurn) {
+                processInput(this);
+            }
+        }
+
+        @Override
+        public void onMove(Player player, int moveIndex){
+            if (player != user && key.isValid()) {
+                int size = game.state.getSize();
+                send(this, "MOVE " + (moveIndex / size + 1) + " " + (moveIndex % size + 1));
+            }
+        }
+
+        @Override
+        public void onOccupied(Player player, int moveIndex){
+            send(this, "This cell is occupied! Choose another one!");
+        }
+
+        @Override
+        public void onGameOver(char winner){
+            if (!key.isValid()) {
+                return;
+            }
+            send(this, winner == '_' ? "Draw" : winner + " wins");
+            inGame = false;
+            activeMatches.decrementAndGet();
+            pool.release(game);
+            game = null;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            processInput(this);
+        }
+    }
+
+    /**
+     * @param args port to listen on, AI threads default to the number of cores
+     */
+    public static void main(String[] args) throws IOException {
+        int port;
+        try {
+            port = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            System.out.println("You should enter numbers!");
+            return;
+        }
+        GameServer server = new GameServer(port, Runtime.getRuntime().availableProcessors());
+        System.out.println("Listening on port " + server.getPort());
+        server.run();
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public int getActiveMatches(){
+        return activeMatches.get();
+    }
+
+    /**
+     * Only once run() has returned, the pool belongs to the selector thread
+     */
+    public GamePool getPool(){
+        return pool;
+    }
+
+    public void stop(){
+        running = false;
+        selector.wakeup();
+    }
+
+    public void run() throws IOException {
+        try {
+            while (running) {
+                selector.select();
+                for (Runnable task = selectorTasks.poll(); task != null; task = selectorTasks.poll()) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            aiPool.shutdownNow();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) == -1) {
+            close(connection);
+            return;
+        }
+        processInput(connection);
+        if (connection.key.isValid() && !connection.in.hasRemaining()) {
+            send(connection, "Bad parameters!");
+            connection.closeAfterWrite = true;
+        }
+        if (connection.key.isValid()) {
+            flush(connection);
+        }
+    }
+
+    /**
+     * Handles the complete lines in the input buffer for as long as input is wanted
+     */
+    private void processInput(Connection connection){
+        if (connection.readingInput) {
+            return;
+        }
+        connection.readingInput = true;
+        ByteBuffer in = connection.in;
+        int lineStart = 0;
+        for (int i = 0; i < in.position() && connection.key.isValid()
+                && (connection.key.interestOps() & SelectionKey.OP_READ) != 0; i++) {
+            if (in.get(i) == '\n') {
+                String line = new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII).trim();
+                lineStart = i + 1;
+                handle(connection, line.toLowerCase());
+            }
+        }
+        // drop what was handled, keep the rest for later
+        int unread = in.position() - lineStart;
+        System.arraycopy(in.array(), lineStart, in.array(), 0, unread);
+        in.position(unread);
+        connection.readingInput = false;
+        try {
+            if (connection.key.isValid()) {
+                flush(connection);
+            }
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    private void handle(Connection connection, String line){
+        if (line.equals("exit")) {
+            connection.closeAfterWrite = true;
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            return;
+        }
+        if (line.startsWith("start")) {
+            startGame(connection, line);
+        } else if (connection.inGame) {
+            userMove(connection, line);
+        } else {
+            send(connection, "Bad parameters!");
+        }
+    }
+
+    private void startGame(Connection connection, String line){
+        String[] command = line.split(" +");
+        boolean userFirst = command.length == 3 && command[1].equals("user") && LEVELS.contains(command[2]);
+        boolean aiFirst = command.length == 3 && command[2].equals("user") && LEVELS.contains(command[1]);
+        if (!userFirst && !aiFirst) {
+            send(connection, "Bad parameters!");
+            return;
+        }
+        if (connection.inGame) {
+            // a new start abandons the running game, it can only come on the user's turn
+            connection.user.disconnect();
+            activeMatches.decrementAndGet();
+            pool.release(connection.game);
+        }
+        GamePool.Game game = userFirst ? pool.acquire(REMOTE, command[2]) : pool.acquire(command[1], REMOTE);
+        connection.game = game;
+        connection.user = (RemotePlayer) game.players[userFirst ? 0 : 1];
+        connection.inGame = true;
+        activeMatches.incrementAndGet();
+        send(connection, "START " + connection.user.getSymbol());
+        new GameSession(game.players, game.state, connection, selectorExecutor).start();
+    }
+
+    private void userMove(Connection connection, String line){
+        int size = connection.game.state.getSize();
+        int separator = line.indexOf(' ');
+        int row;
+        int col;
+        try {
+            row = Integer.parseInt(line.substring(0, Math.max(separator, 0)));
+            col = Integer.parseInt(line.substring(separator + 1).trim());
+        } catch (NumberFormatException e) {
+            send(connection, "You should enter numbers!");
+            return;
+        }
+        if (row < 1 || row > size || col < 1 || col > size) {
+            send(connection, "Coordinates should be from 1 to " + size + "!");
+            return;
+        }
+        // no more input until the session hands the turn back
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+        connection.user.offerMove((row - 1) * size + col - 1);
+    }
+
+    private void send(Connection connection, String message){
+        if (!connection.key.isValid()) {
+            return;
+        }
+        ByteBuffer out = connection.out;
+        if (out.remaining() < message.length() + 1) {
+            // the client is not reading its answers, drop it now rather than buffer without bound
+            close(connection);
+            return;
+        }
+        for (int i = 0; i < message.length(); i++) {
+            out.put((byte) message.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+
+    private void flush(Connection connection) throws IOException {
+        ByteBuffer out = connection.out;
+        out.flip();
+        connection.channel.write(out);
+        out.compact();
+        if (out.position() > 0) {
+            connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+        } else {
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (connection.closeAfterWrite) {
+                close(connection);
+            }
+        }
+    }
+
+    private void close(Connection connection){
+        if (connection.inGame) {
+            connection.inGame = false;
+            activeMatches.decrementAndGet();
+            connection.user.disconnect();
+            // while the AI is thinking the game is still in use, it is left to the garbage collector
+            if (connection.userTurn) {
+                pool.release(connection.game);
+            }
+            connection.game = null;
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+            // nothing left to clean up
+        }
+    }
+}
+
+/**
+ * One instance of a strategy per thread that calls it, for single-threaded strategies that keep
+ * no state between moves; not for ParallelMctsStrategy, which has a thread pool of its own
+ */
+class PerThreadStrategy implements AIStrategy {
+    private final String level;
+    private final ThreadLocal<AIStrategy> strategies;
+
+    public PerThreadStrategy(String level){
+        this.level = level;
+        strategies = ThreadLocal.withInitial(() -> new PlayerFactory().createStrategy(level));
+    }
+
+    @Override
+    public int generateMove(GameState state, char aiSymbol){
+        return strategies.get().generateMove(state, aiSymbol);
+    }
+
+    @Override
+    public String toString(){
+        return level;
+    }
+}
+
+/**
+ * Local client simulator for GameServer: keeps many connections open on one selector,
+ * each playing random legal moves game after game
+ */
+class GameLoadTest {
+    private static final String[] LEVELS = {"easy", "medium", "hard"};
+
+    private final int cells = Configuration.BOARD_SIZE * Configuration.BOARD_SIZE;
+    private final SplittableRandom random = new SplittableRandom();
+    private long gamesLeft;
+    private long gamesPlayed;
+    private long movesSent;
+    private int peakMatches;
+
+    private final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        final ByteBuffer out = ByteBuffer.allocate(256);
+        final boolean[] taken = new boolean[cells];
+        boolean playing;
+        // the user moves once the lines of a read are handled, a result line among them cancels it
+        boolean moveDue;
+
+        Client(SocketChannel channel){
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * @param args concurrent connections and total games, the server runs in the same process
+     */
+    public static void main(String[] args) throws IOException {
+        int connections;
+        long games;
+        try {
+            connections = Integer.parseInt(args[0]);
+            games = Long.parseLong(args[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("You should enter numbers!");
+            return;
+        }
+        GameServer server = new GameServer(0, Runtime.getRuntime().availableProcessors());
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                System.out.println("Server stopped: " + e.getMessage());
+            }
+        }, "server");
+        serverThread.start();
+
+        GameLoadTest test = new GameLoadTest();
+        long start = System.nanoTime();
+        test.run(server, connections, games);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.stop();
+        try {
+            serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%d games, %d user moves in %.3f s: %.0f games/sec, peak %d concurrent matches, "
+                        + "heap used %d MB%n", test.gamesPlayed, test.movesSent, seconds, test.gamesPlayed / seconds,
+                test.peakMatches, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+        System.out.printf("boards created/reused: %d/%d%n", server.getPool().getCreated(),
+                server.getPool().getReused());
+    }
+
+    private void run(GameServer server, int connections, long games) throws IOException {
+        gamesLeft = games;
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                Client client = new Client(channel);
+                channel.register(selector, SelectionKey.OP_READ, client);
+                startGame(client);
+            }
+            int open = connections;
+            while (open > 0) {
+                selector.select(1000);
+                peakMatches = Math.max(peakMatches, server.getActiveMatches());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    if (client.channel.read(client.in) == -1) {
+                        key.cancel();
+                        client.channel.close();
+                        open--;
+                        continue;
+                    }
+                    readLines(client);
+                }
+            }
+        }
+    }
+
+    private void readLines(Client client) throws IOException {
+        ByteBuffer in = client.in;
+        in.flip();
+        int lineStart = 0;
+        for (int i = 0; i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                onLine(client, new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII));
+                lineStart = i + 1;
+            }
+        }
+        in.position(lineStart);
+        in.compact();
+        if (client.moveDue) {
+            client.moveDue = false;
+            userMove(client);
+        }
+    }
+
+    private void onLine(Client client, String line) throws IOException {
+        if (line.equals("START X")) {
+            client.moveDue = true;
+        } else if (line.startsWith("MOVE ")) {
+            int separator = line.indexOf(' ', 5);
+            int row = Integer.parseInt(line.substring(5, separator));
+            int col = Integer.parseInt(line.substring(separator + 1));
+            client.taken[(row - 1) * Configuration.BOARD_SIZE + col - 1] = true;
+            client.moveDue = true;
+        } else if (line.endsWith("wins") || line.equals("Draw")) {
+            client.playing = false;
+            client.moveDue = false;
+            gamesPlayed++;
+            startGame(client);
+        }
+    }
+
+    private void startGame(Client client) throws IOException {
+        if (gamesLeft == 0) {
+            send(client, "exit");
+            return;
+        }
+        gamesLeft--;
+        Arrays.fill(client.taken, false);
+        client.playing = true;
+        String level = LEVELS[random.nextInt(LEVELS.length)];
+        send(client, random.nextBoolean() ? "start user " + level : "start " + level + " user");
+    }
+
+    private void userMove(Client client) throws IOException {
+        if (!client.playing) {
+            return;
+        }
+        int free = 0;
+        for (boolean taken : client.taken) {
+            free += taken ? 0 : 1;
+        }
+        if (free == 0) {
+            // the server's own MOVE line ended the game, its result follows
+            return;
+        }
+        int pick = random.nextInt(free);
+        for (int i = 0; i < cells; i++) {
+            if (!client.taken[i] && pick-- == 0) {
+                client.taken[i] = true;
+                movesSent++;
+                send(client, (i / Configuration.BOARD_SIZE + 1) + " " + (i % Configuration.BOARD_SIZE + 1));
+                return;
+            }
+        }
+    }
+
+    private void send(Client client, String message) throws IOException {
+        client.out.clear();
+        client.out.put(message.getBytes(StandardCharsets.US_ASCII)).put((byte) '\n').flip();
+        while (client.out.hasRemaining()) {
+            client.channel.write(client.out);
+        }
     }
 }
 
 class Configuration{
-    public static final int BOARD_SIZE = 3;
+    // line counters are bytes and MctsStrategy keeps cells and child counts in shorts
+    public static final int MAX_BOARD_SIZE = 127;
+    public static final int BOARD_SIZE = Integer.getInteger("tictactoe.size", 3);
+    public static final int WIN_LENGTH = Integer.getInteger("tictactoe.win", Math.min(BOARD_SIZE, 5));
+    // tablebase file to map instead of the one on the classpath
+    public static final String TABLEBASE_FILE = System.getProperty("tictactoe.tablebase");
+    // console board drawn after every Nth move, 0 prints only the result
+    public static final int RENDER_EVERY = Integer.getInteger("tictactoe.render", 1);
+    // position statistics the learned level plays from, see --position-stats
+    public static final String POLICY_FILE = System.getProperty("tictactoe.policy", "policy.bin");
+    // directory for the binary game logs, nothing is recorded when it is not set
+    public static final String RECORDS_DIR = System.getProperty("tictactoe.records");
+    // tournament workers and parallel level search threads, checked to be at least 1 in Main
+    public static final int THREADS = Integer.getInteger("tictactoe.threads",
+            Runtime.getRuntime().availableProcessors());
+    public static final long SEGMENT_BYTES = Long.getLong("tictactoe.segment", 64L << 20);
     public static final InputHandler inputHandler = new InputHandler();
 }